@@ -0,0 +1,59 @@
+package com.sharingapples.benchmark.sync.store.jdbc;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sharingapples.sync.store.jdbc.EngineJDBC;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The latency of a session committing a single small update, with and
+ * without the group commit. Run with several threads to see the commits
+ * being coalesced.
+ */
+@BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CommitBenchmark {
+
+  @State(Scope.Benchmark)
+  public static class CommitState extends StoreState {
+    @Param({"false", "true"})
+    public boolean groupCommit;
+
+    @Param({"2"})
+    public long groupCommitWindowMillis;
+
+    @Setup(Level.Trial)
+    public void enableGroupCommit() {
+      if (groupCommit) {
+        store.enableGroupCommit(groupCommitWindowMillis, TimeUnit.MILLISECONDS);
+      }
+    }
+
+    @TearDown(Level.Trial)
+    public void disableGroupCommit() {
+      store.disableGroupCommit();
+    }
+  }
+
+  @Benchmark
+  public Object commit(CommitState state) {
+    ObjectNode node = state.randomUpdate();
+    return state.store.execute(engine -> ((EngineJDBC) engine).update(state.items, node));
+  }
+}
@@ -0,0 +1,62 @@
+package com.sharingapples.benchmark.sync.store.jdbc;
+
+import com.sharingapples.benchmark.sync.store.jdbc.setup.Item;
+import com.sharingapples.sync.store.jdbc.JDBCPage;
+import com.sharingapples.sync.store.jdbc.JDBCRecordSet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The reads through StoreJDBC.executeRead, which go to the read pool of the
+ * stores that have one. The full scan measures the row mapping of the
+ * JDBCRecordSet over all the preloaded items.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReadBenchmark {
+  static final int PAGE = 100;
+
+  @Benchmark
+  public Item fetch(StoreState state) {
+    return state.store.executeRead(engine -> engine.fetch(state.items, state.randomKey()));
+  }
+
+  @Benchmark
+  public int scan(StoreState state, Blackhole blackhole) {
+    return state.store.executeRead(engine -> {
+      try (JDBCRecordSet<Item> records = engine.fetchAll(state.items)) {
+        while(records.hasNext()) {
+          blackhole.consume(records.next());
+        }
+        return records.getCount();
+      }
+    });
+  }
+
+  @Benchmark
+  public List<Item> loadMany(StoreState state) {
+    return state.store.executeRead(engine -> {
+      List<Item> page = new ArrayList<>(PAGE);
+      try (JDBCPage<Item> records = engine.fetchPage(state.items, null, PAGE)) {
+        while(records.getRecords().hasNext()) {
+          page.add(records.getRecords().next());
+        }
+      }
+      engine.loadMany(state.items, page);
+      return page;
+    });
+  }
+}
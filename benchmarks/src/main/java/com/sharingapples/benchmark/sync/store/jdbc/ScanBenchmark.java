@@ -0,0 +1,187 @@
+package com.sharingapples.benchmark.sync.store.jdbc;
+
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sharingapples.benchmark.sync.store.jdbc.setup.Item;
+import com.sharingapples.benchmark.sync.store.jdbc.setup.Tag;
+import com.sharingapples.sync.resource.DataType;
+import com.sharingapples.sync.resource.FieldMap;
+import com.sharingapples.sync.resource.Registrar;
+import com.sharingapples.sync.resource.ResourceMap;
+import com.sharingapples.sync.store.StoreException;
+import com.sharingapples.sync.store.jdbc.EngineJDBC;
+import com.sharingapples.sync.store.jdbc.JDBCPoolConfig;
+import com.sharingapples.sync.store.jdbc.JDBCRecordSet;
+import com.sharingapples.sync.store.jdbc.SqliteProfile;
+import com.sharingapples.sync.store.jdbc.StoreSqlite;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The full scan of a large table, through the compiled row mapper of the
+ * JDBCRecordSet and through the reflective mapping it replaced, where every
+ * field of every row was checked, looked up for its mapper and set with
+ * FieldMap.set.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ScanBenchmark {
+  static final int LOAD_CHUNK = 50000;
+
+  @State(Scope.Benchmark)
+  public static class ScanState {
+    @Param({"memory", "file"})
+    public String storage;
+
+    @Param({"10000", "1000000"})
+    public int rows;
+
+    @Param({"64"})
+    public int rowSize;
+
+    StoreSqlite store;
+    ResourceMap<Item> items;
+    String selectSql;
+
+    private File file;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+      Registrar registrar = new Registrar(source -> {
+        source.registerResource(Item.class);
+        source.registerResource(Tag.class);
+      });
+      items = registrar.getResourceMap(Item.class);
+
+      if (storage.equals("memory")) {
+        store = new StoreSqlite(registrar, StoreSqlite.MEMORY_URL, new SqliteProfile(), new JDBCPoolConfig());
+      } else {
+        file = File.createTempFile("store-jdbc-scan-", ".sqlite");
+        store = new StoreSqlite(registrar, file, new SqliteProfile());
+      }
+      selectSql = "SELECT * FROM " + store.getDialect().quoteIdentifier(items.getName());
+
+      StringBuilder payload = new StringBuilder(rowSize);
+      for(int i=0; i<rowSize; ++i) {
+        payload.append((char) ('a' + i % 26));
+      }
+
+      store.execute(engine -> {
+        EngineJDBC e = (EngineJDBC) engine;
+        e.createTable(Tag.class);
+        e.createTable(Item.class);
+        return null;
+      });
+
+      // Loaded in chunks, to keep the nodes of a million rows out of memory
+      for(int from=0; from<rows; from+=LOAD_CHUNK) {
+        List<ObjectNode> nodes = new ArrayList<>();
+        for(int i=from; i<Math.min(rows, from + LOAD_CHUNK); ++i) {
+          ObjectNode node = JsonNodeFactory.instance.objectNode();
+          node.put("name", "item-" + i);
+          node.put("payload", payload.toString());
+          nodes.add(node);
+        }
+        store.execute(engine -> ((EngineJDBC) engine).insertAll(items, nodes));
+      }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+      if (file != null) {
+        file.delete();
+      }
+    }
+  }
+
+  @Benchmark
+  public int compiled(ScanState state, Blackhole blackhole) {
+    return state.store.executeRead(engine -> {
+      try (JDBCRecordSet<Item> records = engine.fetchAll(state.items)) {
+        while(records.hasNext()) {
+          blackhole.consume(records.next());
+        }
+        return records.getCount();
+      }
+    });
+  }
+
+  @Benchmark
+  public int reflective(ScanState state, Blackhole blackhole) {
+    return state.store.executeRead(engine -> {
+      ResourceMap<Item> map = state.items;
+      try (PreparedStatement stmt = engine.getConnection().prepareStatement(state.selectSql);
+           ResultSet rs = stmt.executeQuery()) {
+        int[] columns = new int[map.getFieldsCount()];
+        for(int i=0; i<columns.length; ++i) {
+          FieldMap fieldMap = map.getFieldMap(i);
+          if (!fieldMap.getType().isMany() && !fieldMap.isTransient()) {
+            columns[i] = rs.findColumn(fieldMap.getName());
+          }
+        }
+        int primaryColumn = rs.findColumn(map.getPrimaryField().getName());
+
+        int count = 0;
+        while(rs.next()) {
+          Item res = map.find(read(rs, primaryColumn, map.getPrimaryField().getType()));
+          for(int i=0; i<columns.length; ++i) {
+            FieldMap fieldMap = map.getFieldMap(i);
+            if (fieldMap.getType().isMany() || fieldMap.isTransient()) {
+              continue;
+            }
+
+            // The mapper lookup done for every field of every row
+            blackhole.consume(state.store.getJDBCFieldType(fieldMap.getType()));
+            fieldMap.set(res, read(rs, columns[i], fieldMap.getType()));
+          }
+          blackhole.consume(res);
+          count += 1;
+        }
+        return count;
+      } catch(SQLException e) {
+        throw new StoreException("Error while scanning " + map.getName(), e);
+      }
+    });
+  }
+
+  /**
+   * Read a column the way the field mapper of its type does
+   */
+  private static Object read(ResultSet rs, int column, DataType type) throws SQLException {
+    if (type == DataType.LONG) {
+      long value = rs.getLong(column);
+      return rs.wasNull() ? null : value;
+    } else if (type == DataType.INT) {
+      int value = rs.getInt(column);
+      return rs.wasNull() ? null : value;
+    } else if (type == DataType.STRING) {
+      return rs.getString(column);
+    } else {
+      return rs.getObject(column);
+    }
+  }
+}
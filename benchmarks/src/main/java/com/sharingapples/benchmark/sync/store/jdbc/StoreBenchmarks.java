@@ -0,0 +1,38 @@
+package com.sharingapples.benchmark.sync.store.jdbc;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+
+/**
+ * Runs all the benchmarks for each of the given thread counts, writing the
+ * results of each thread count into a JSON file of the output directory, to
+ * be compared with the results of the previous releases.
+ *
+ * Usage: StoreBenchmarks [output directory] [thread counts, like 1,4,8]
+ */
+public class StoreBenchmarks {
+
+  public static void main(String[] args) throws RunnerException {
+    File outputDir = new File(args.length > 0 ? args[0] : "target/jmh");
+    String[] threadCounts = (args.length > 1 ? args[1] : "1,4,8").split(",");
+    if (!outputDir.isDirectory() && !outputDir.mkdirs()) {
+      throw new IllegalArgumentException("Could not create the output directory " + outputDir);
+    }
+
+    for(String threadCount : threadCounts) {
+      int threads = Integer.parseInt(threadCount.trim());
+      Options options = new OptionsBuilder()
+              .include(StoreBenchmarks.class.getPackage().getName() + "\\..*Benchmark")
+              .threads(threads)
+              .resultFormat(ResultFormatType.JSON)
+              .result(new File(outputDir, "store-jdbc-t" + threads + ".json").getPath())
+              .build();
+      new Runner(options).run();
+    }
+  }
+}
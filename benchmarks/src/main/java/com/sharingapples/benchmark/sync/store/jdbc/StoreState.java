@@ -0,0 +1,161 @@
+package com.sharingapples.benchmark.sync.store.jdbc;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sharingapples.benchmark.sync.store.jdbc.setup.Item;
+import com.sharingapples.benchmark.sync.store.jdbc.setup.Tag;
+import com.sharingapples.sync.resource.Key;
+import com.sharingapples.sync.resource.Registrar;
+import com.sharingapples.sync.resource.ResourceMap;
+import com.sharingapples.sync.store.jdbc.EngineJDBC;
+import com.sharingapples.sync.store.jdbc.JDBCPoolConfig;
+import com.sharingapples.sync.store.jdbc.SqliteProfile;
+import com.sharingapples.sync.store.jdbc.StoreSqlite;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A SQLite store shared by all the threads of a benchmark, preloaded with
+ * {@link #rows} items of {@link #rowSize} bytes each tagged with
+ * {@link #TAGS_PER_ITEM} tags.
+ */
+@State(Scope.Benchmark)
+public class StoreState {
+  static final int TAG_COUNT = 20;
+  static final int TAGS_PER_ITEM = 3;
+
+  /**
+   * memory: a single connection in-memory database, file: a temporary file
+   * with the default profile, performance: a temporary file with the
+   * SqliteProfile.performance profile (WAL and the read pool)
+   */
+  @Param({"memory", "file", "performance"})
+  public String storage;
+
+  @Param({"64", "1024", "16384"})
+  public int rowSize;
+
+  @Param({"10000"})
+  public int rows;
+
+  StoreSqlite store;
+  ResourceMap<Item> items;
+  ResourceMap<Tag> tags;
+  JsonNode[] ids;
+  Key[] keys;
+  long[] tagIds;
+  String payload;
+
+  private File file;
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+    Registrar registrar = new Registrar(source -> {
+      source.registerResource(Item.class);
+      source.registerResource(Tag.class);
+    });
+    items = registrar.getResourceMap(Item.class);
+    tags = registrar.getResourceMap(Tag.class);
+
+    if (storage.equals("memory")) {
+      store = new StoreSqlite(registrar, StoreSqlite.MEMORY_URL, new SqliteProfile(), new JDBCPoolConfig());
+    } else {
+      file = File.createTempFile("store-jdbc-bench-", ".sqlite");
+      SqliteProfile profile = storage.equals("performance") ? SqliteProfile.performance() : new SqliteProfile();
+      store = new StoreSqlite(registrar, file, profile);
+    }
+
+    StringBuilder payloadBuilder = new StringBuilder(rowSize);
+    for(int i=0; i<rowSize; ++i) {
+      payloadBuilder.append((char) ('a' + i % 26));
+    }
+    payload = payloadBuilder.toString();
+
+    store.execute(engine -> {
+      EngineJDBC e = (EngineJDBC) engine;
+      e.createTable(Tag.class);
+      e.createTable(Item.class);
+      return null;
+    });
+
+    // The tags first, for the ids of the Many relation
+    List<ObjectNode> tagNodes = new ArrayList<>();
+    for(int i=0; i<TAG_COUNT; ++i) {
+      ObjectNode node = JsonNodeFactory.instance.objectNode();
+      node.put("name", "tag-" + i);
+      tagNodes.add(node);
+    }
+    store.execute(engine -> ((EngineJDBC) engine).insertAll(tags, tagNodes));
+    tagIds = new long[TAG_COUNT];
+    for(int i=0; i<TAG_COUNT; ++i) {
+      tagIds[i] = tagNodes.get(i).get("id").longValue();
+    }
+
+    List<ObjectNode> itemNodes = new ArrayList<>();
+    for(int i=0; i<rows; ++i) {
+      itemNodes.add(newItem(true));
+    }
+    store.execute(engine -> ((EngineJDBC) engine).insertAll(items, itemNodes));
+    ids = new JsonNode[rows];
+    keys = new Key[rows];
+    for(int i=0; i<rows; ++i) {
+      ids[i] = itemNodes.get(i).get("id");
+      ObjectNode keyNode = JsonNodeFactory.instance.objectNode();
+      keyNode.set("id", ids[i]);
+      keys[i] = items.getPrimaryKey(keyNode);
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    if (file != null) {
+      new File(file.getPath() + "-wal").delete();
+      new File(file.getPath() + "-shm").delete();
+      file.delete();
+    }
+  }
+
+  /**
+   * A new item without a key, for the key to be generated on insert
+   */
+  ObjectNode newItem(boolean tagged) {
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    ObjectNode node = JsonNodeFactory.instance.objectNode();
+    node.put("name", "item-" + random.nextInt());
+    node.put("payload", payload);
+    if (tagged) {
+      ArrayNode tagArray = node.putArray("tags");
+      for(int i=0; i<TAGS_PER_ITEM; ++i) {
+        tagArray.add(tagIds[random.nextInt(TAG_COUNT)]);
+      }
+    }
+    return node;
+  }
+
+  /**
+   * A partial update of the name of a random preloaded item
+   */
+  ObjectNode randomUpdate() {
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    ObjectNode node = JsonNodeFactory.instance.objectNode();
+    node.set("id", ids[random.nextInt(ids.length)]);
+    node.put("name", "item-" + random.nextInt());
+    return node;
+  }
+
+  Key randomKey() {
+    return keys[ThreadLocalRandom.current().nextInt(keys.length)];
+  }
+}
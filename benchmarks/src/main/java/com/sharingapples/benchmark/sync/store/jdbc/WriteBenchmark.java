@@ -0,0 +1,67 @@
+package com.sharingapples.benchmark.sync.store.jdbc;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sharingapples.sync.store.jdbc.EngineJDBC;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The single and batched inserts and updates, each in a session of its own.
+ * The batched benchmarks report the time per record.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WriteBenchmark {
+  static final int BATCH = 100;
+
+  @Benchmark
+  public Object insert(StoreState state) {
+    ObjectNode node = state.newItem(false);
+    return state.store.execute(engine -> ((EngineJDBC) engine).insert(state.items, node));
+  }
+
+  @Benchmark
+  public Object insertWithRelation(StoreState state) {
+    ObjectNode node = state.newItem(true);
+    return state.store.execute(engine -> ((EngineJDBC) engine).insert(state.items, node));
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(BATCH)
+  public Object insertBatch(StoreState state) {
+    List<ObjectNode> nodes = new ArrayList<>(BATCH);
+    for(int i=0; i<BATCH; ++i) {
+      nodes.add(state.newItem(false));
+    }
+    return state.store.execute(engine -> ((EngineJDBC) engine).insertAll(state.items, nodes));
+  }
+
+  @Benchmark
+  public Object update(StoreState state) {
+    ObjectNode node = state.randomUpdate();
+    return state.store.execute(engine -> ((EngineJDBC) engine).update(state.items, node));
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(BATCH)
+  public Object updateBatch(StoreState state) {
+    List<ObjectNode> nodes = new ArrayList<>(BATCH);
+    for(int i=0; i<BATCH; ++i) {
+      nodes.add(state.randomUpdate());
+    }
+    return state.store.execute(engine -> ((EngineJDBC) engine).updateAll(state.items, nodes));
+  }
+}
@@ -0,0 +1,24 @@
+package com.sharingapples.benchmark.sync.store.jdbc.setup;
+
+import com.sharingapples.sync.resource.Many;
+import com.sharingapples.sync.resource.Resource;
+import com.sharingapples.sync.resource.annotations.Field;
+
+public class Item implements Resource {
+
+  @Field private Long id;
+  @Field private String name;
+  @Field private String payload;
+  @Field private Many<Tag> tags;
+
+  @Override
+  public Long getId() {
+    return id;
+  }
+
+  public String getName() { return name; }
+
+  public String getPayload() { return payload; }
+
+  public Many<Tag> getTags() { return tags; }
+}
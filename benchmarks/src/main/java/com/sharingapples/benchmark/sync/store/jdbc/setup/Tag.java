@@ -0,0 +1,19 @@
+package com.sharingapples.benchmark.sync.store.jdbc.setup;
+
+import com.sharingapples.sync.resource.Resource;
+import com.sharingapples.sync.resource.annotations.Field;
+
+public class Tag implements Resource {
+
+  @Field private Long id;
+  @Field private String name;
+
+  @Override
+  public Long getId() {
+    return id;
+  }
+
+  public String getName() {
+    return name;
+  }
+}
@@ -0,0 +1,172 @@
+package com.sharingapples.sync.store.jdbc;
+
+import com.sharingapples.sync.resource.DataType;
+import com.sharingapples.sync.resource.ResourceMap;
+import com.sharingapples.sync.store.StoreException;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * The database specific SQL of a StoreJDBC. The dialect owns the identifier
+ * quoting, the column types and the syntax of the statements that differ
+ * between the databases (upsert, paging, generated keys, array parameters),
+ * so the plans and the engines can use the native constructs of the
+ * database instead of the lowest common denominator.
+ *
+ * The default methods produce standard SQL, available as {@link #GENERIC}.
+ */
+public interface Dialect {
+
+  /**
+   * A dialect using only the standard SQL
+   */
+  Dialect GENERIC = new Dialect() {};
+
+  /**
+   * Quote the given table or column name
+   */
+  default String quoteIdentifier(String identifier) {
+    return "\"" + identifier + "\"";
+  }
+
+  /**
+   * Retrieve the column type for the given data type. A reference is stored
+   * with the type of the primary field of the referenced resource.
+   */
+  default String getTypeName(DataType type) {
+    if (type == DataType.INT) {
+      return "INTEGER";
+    } else if (type == DataType.LONG) {
+      return "BIGINT";
+    } else if (type == DataType.STRING) {
+      return "TEXT";
+    } else if (type == DataType.DATE) {
+      return "DATE";
+    } else if (type.isReference()) {
+      return getTypeName(((ResourceMap) type).getPrimaryField().getType());
+    } else if (type.isMany()) {
+      throw new StoreException("A Many type is relation and not a field");
+    } else {
+      throw new StoreException("Unsupported Data Type " + type);
+    }
+  }
+
+  /**
+   * Retrieve the column type of a single field primary key, whose values are
+   * generated by the database when not provided on insert.
+   */
+  default String getKeyTypeName(DataType type) {
+    return getTypeName(type);
+  }
+
+  /**
+   * Retrieve the clause appended to an INSERT for returning the key columns
+   * in the given order, or an empty string when the generated keys are
+   * retrieved through the driver only.
+   */
+  default String getReturningClause(String[] keyColumnNames) {
+    return "";
+  }
+
+  /**
+   * Checks if the driver returns the generated keys for all the records of
+   * an executeBatch. Not all drivers do (sqlite returns only the last rowid).
+   */
+  default boolean supportsBatchGeneratedKeys() {
+    return false;
+  }
+
+  /**
+   * Checks if the database supports the row value comparisons like
+   * (a, b) IN ((?, ?), (?, ?)).
+   */
+  default boolean supportsRowValues() {
+    return false;
+  }
+
+  /**
+   * Checks if the database supports the statement of
+   * {@link #getUpsertSql(String, String[], String[])}, in which case a record
+   * with a known key is saved with a single statement. Otherwise an UPDATE is
+   * tried first followed by an INSERT when no record has been updated.
+   *
+   * @param connection A connection to the database, for the dialects that
+   *                   depend on the version of the server
+   */
+  default boolean supportsUpsert(Connection connection) throws SQLException {
+    return false;
+  }
+
+  /**
+   * Build the statement inserting a record or overwriting the given columns
+   * of the existing record with the same key. The parameters are bound the
+   * same way as the given insert statement.
+   *
+   * @param insertSql The INSERT INTO t(...) VALUES (...) statement
+   * @param keyColumnNames The quoted primary key columns
+   * @param updatedColumnNames The quoted columns to overwrite, may be empty
+   */
+  default String getUpsertSql(String insertSql, String[] keyColumnNames, String[] updatedColumnNames) {
+    // INSERT INTO t(k,a,b) VALUES (?,?,?) ON CONFLICT(k) DO UPDATE SET a=excluded.a
+    StringBuilder sqlBuilder = new StringBuilder(insertSql);
+    sqlBuilder.append(" ON CONFLICT(");
+    sqlBuilder.append(String.join(",", keyColumnNames));
+    sqlBuilder.append(')');
+
+    if (updatedColumnNames.length == 0) {
+      // Only the key is available, nothing to overwrite
+      sqlBuilder.append(" DO NOTHING");
+    } else {
+      for(int i=0; i<updatedColumnNames.length; ++i) {
+        sqlBuilder.append(i == 0 ? " DO UPDATE SET " : ",");
+        sqlBuilder.append(updatedColumnNames[i]);
+        sqlBuilder.append("=excluded.");
+        sqlBuilder.append(updatedColumnNames[i]);
+      }
+    }
+    return sqlBuilder.toString();
+  }
+
+  /**
+   * Build the statement creating an index unless it already exists
+   *
+   * @param indexName The quoted name of the index
+   * @param tableName The quoted name of the table
+   * @param columnNames The quoted columns of the index
+   */
+  default String getCreateIndexSql(String indexName, String tableName, String[] columnNames, boolean unique) {
+    return "CREATE " + (unique ? "UNIQUE " : "") + "INDEX IF NOT EXISTS " + indexName
+            + " ON " + tableName + "(" + String.join(",", columnNames) + ")";
+  }
+
+  /**
+   * Retrieve the clause appended to a SELECT for limiting the number of
+   * records, with the limit as its only parameter.
+   */
+  default String getLimitClause() {
+    return " FETCH FIRST ? ROWS ONLY";
+  }
+
+  /**
+   * Retrieve the SQL array element type name to be used with
+   * Connection.createArrayOf for passing a list of values of the given type
+   * as a single parameter. Returns null by default, in which case the
+   * values are passed as individual parameters.
+   */
+  default String getArrayTypeName(DataType type) {
+    return null;
+  }
+
+  /**
+   * Retrieve the statement returning the execution plan of the given
+   * statement, with the same parameters, for the slow statement log.
+   * Returns null by default, in which case the plans are not logged.
+   *
+   * @param query false for the statements that modify the data, which must
+   *              not be executed again to get their plan
+   */
+  default String getExplainSql(String sql, boolean query) {
+    return null;
+  }
+}
@@ -1,6 +1,10 @@
 package com.sharingapples.sync.store.jdbc;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.sharingapples.sync.resource.*;
 import com.sharingapples.sync.state.ResourceProxy;
@@ -9,10 +13,21 @@ import com.sharingapples.sync.store.Engine;
 import com.sharingapples.sync.store.ResourceCache;
 import com.sharingapples.sync.store.Store;
 import com.sharingapples.sync.store.StoreException;
+import com.sharingapples.sync.store.jdbc.JDBCMetricsListener.Operation;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 /**
  * The JDBC Engine for storing/retrieving data from JDBC specific databases
@@ -20,13 +35,68 @@ import java.util.List;
  * Created by ranjan on 12/14/15.
  */
 public class EngineJDBC extends Engine {
+  // The number of records of a map invalidated one by one on commit, beyond
+  // which all the cached records of the map are invalidated
+  private static final int MAX_CACHE_INVALIDATIONS = 1000;
 
-  private final Connection connection;
+  // The number of records kept for the dirty tracking, the records read
+  // beyond it are updated with all their fields
+  private static final int MAX_SNAPSHOTS = 10000;
+
+  // The factory of the generators of writeAll, which leave the stream open
+  private static final JsonFactory JSON_FACTORY = new JsonFactory().disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
 
-  EngineJDBC(StoreJDBC store, Connection connection) {
+  private final Connection connection;
+  private final JDBCStatementCache statementCache;
+
+  // Resolved on the first upsert
+  private Boolean upsert;
+
+  // The group commit the engine is a session of, and the savepoint of the
+  // session on the shared connection
+  private JDBCGroupCommit groupCommit;
+  private Savepoint savepoint;
+
+  // The session the engine is nested in, sharing its connection within the
+  // savepoint, for the stores with a single writer connection
+  private EngineJDBC outer;
+
+  // The instrumentation, null when disabled, the time spent preparing the
+  // statements since the last execution started, and the part of it taken
+  // by the execution in progress
+  private final JDBCMetricsListener metrics;
+  private long prepareNanos;
+  private long executePrepareNanos;
+
+  // The slow statement threshold, 0 when disabled, and the values bound to
+  // the statements in use for their log
+  private final long slowNanos;
+  private final JDBCBindLog binds;
+  private final boolean timed;
+
+  // The second level cache of the store, null when disabled, its generation
+  // when the session started and the records to invalidate once the session
+  // is committed (null for all the records of a map)
+  private final JDBCResourceCache resourceCache;
+  private final long cacheGeneration;
+  private Map<ResourceMap<?>, List<Key>> cacheInvalidations;
+
+  // The column values of the records read by the session, by their key, for
+  // the dirty tracking. Null when disabled
+  private final Map<JDBCRecordKey, Object[]> snapshots;
+
+  EngineJDBC(StoreJDBC store, Connection connection, JDBCStatementCache statementCache) {
     super(store);
 
     this.connection = connection;
+    this.statementCache = statementCache;
+    this.metrics = store.getMetricsListener();
+    this.slowNanos = store.getSlowStatementThreshold(TimeUnit.NANOSECONDS);
+    this.binds = slowNanos > 0 ? new JDBCBindLog() : null;
+    this.timed = metrics != null || slowNanos > 0;
+    this.resourceCache = store.getResourceCache();
+    this.cacheGeneration = resourceCache == null ? 0 : resourceCache.getGeneration();
+    this.snapshots = store.isDirtyTracking() ? new HashMap<>() : null;
     try {
       this.connection.setAutoCommit(false);
     } catch(SQLException e) {
@@ -44,398 +114,1821 @@ public class EngineJDBC extends Engine {
   }
 
   protected String quoteSystemIdentifier(String identifier) {
-    return "\"" + identifier + "\"";
+    return getStore().quoteSystemIdentifier(identifier);
   }
 
-  public <T extends Resource> void createTable(Class<T> clazz) {
-    ResourceMap<T> map = getStore().getRegistrar().getResourceMap(clazz);
-
-    String sql = "CREATE TABLE IF NOT EXISTS " + quoteSystemIdentifier(map.getName()) + "(";
-    for(int i=0; i<map.getFieldsCount(); ++i) {
-      FieldMap fieldMap = map.getFieldMap(i);
-      if (fieldMap.getType().isMany() || fieldMap.isTransient()) {
-        continue;
-      }
-
-      if (i > 0) {
-        sql += ",";
-      }
+  /**
+   * Prepare a statement for the given sql, reusing the one cached on the
+   * connection if available. The statement must be given back using
+   * {@link #releaseStatement(String, PreparedStatement)} and not closed.
+   */
+  PreparedStatement prepareStatement(String sql) throws SQLException {
+    return prepareStatement(sql, Statement.NO_GENERATED_KEYS);
+  }
 
-      sql += fieldMap.getName() + " " + getTypeName(fieldMap.getType());
-//      if (fieldMap.isKey()) {
-//        sql += " PRIMARY KEY ";
-//      }
+  PreparedStatement prepareStatement(String sql, int autoGeneratedKeys) throws SQLException {
+    if (metrics == null) {
+      return doPrepareStatement(sql, autoGeneratedKeys);
     }
-    sql += ");";
 
-    try (Statement stmt = connection.createStatement()) {
-      stmt.executeUpdate(sql);
-    } catch(SQLException e) {
-      throw new StoreException("Error while executing " + sql, e);
+    long start = System.nanoTime();
+    try {
+      return doPrepareStatement(sql, autoGeneratedKeys);
+    } finally {
+      prepareNanos += System.nanoTime() - start;
     }
   }
 
-  public String getTypeName(DataType type) {
-    if (type == DataType.INT || type == DataType.LONG) {
-      return "INTEGER";
-    } else if (type == DataType.STRING) {
-      return "TEXT";
-    } else if (type == DataType.DATE) {
-      return "DATE";
-    } else if (type.isReference()) {
-      return "INT";
-    } else if (type.isMany()) {
-      throw new StoreException("A Many type is relation and not a field");
+  private PreparedStatement doPrepareStatement(String sql, int autoGeneratedKeys) throws SQLException {
+    if (statementCache == null) {
+      return connection.prepareStatement(sql, autoGeneratedKeys);
     } else {
-      throw new StoreException("Unsupported Data Type " + type);
+      return statementCache.borrow(sql, autoGeneratedKeys);
     }
   }
 
-  @Override
-  public void doCommit() {
-    try {
-      connection.commit();
-    } catch(SQLException e) {
-      throw new StoreException("Error while committing session", e);
-    }
+  JDBCMetricsListener getMetricsListener() {
+    return metrics;
   }
 
-  @Override
-  public void doClose() {
-    try {
-      connection.rollback();
-      connection.close();
-    } catch(SQLException e) {
-      throw new StoreException("Error while closing engine connection", e);
+  /**
+   * Bind a parameter through the given mapper, keeping the value for the
+   * slow statement log
+   */
+  @SuppressWarnings("unchecked")
+  private void bind(JDBCFieldMapper mapper, PreparedStatement stmt, int index, Object value) throws SQLException {
+    mapper.setValue(stmt, index, value);
+    if (binds != null) {
+      binds.set(stmt, index, mapper, value);
     }
   }
 
-  @Override
-  public <T extends Resource> JDBCRecordSet<T> fetchAll(ResourceMap<T> map) throws StoreException {
-    String sql = "SELECT * FROM " + quoteSystemIdentifier(map.getName());
+  /**
+   * Keep a value bound directly on the statement for the slow statement log
+   */
+  private void logBind(PreparedStatement stmt, int index, Object value) {
+    if (binds != null) {
+      binds.set(stmt, index, null, value);
+    }
+  }
 
-    PreparedStatement stmt;
-    ResultSet rs;
-    try {
-      stmt = connection.prepareStatement(sql);
-      rs = stmt.executeQuery();
-    } catch(SQLException e) {
-      throw new StoreException("Error while executing sql - " + sql, e);
+  /**
+   * Start an execution, which takes the time spent on preparing the
+   * statements till then. An execution failing before it is recorded then
+   * does not leave its prepare time to the next one.
+   *
+   * @return The start time of an execution for {@link #recordExecute}, 0
+   *         when the engine is not instrumented
+   */
+  private long startTimer() {
+    if (!timed) {
+      return 0;
     }
 
-    return new JDBCRecordSet<T>(getStore(), stmt, map, rs);
+    executePrepareNanos = prepareNanos;
+    prepareNanos = 0;
+    return System.nanoTime();
   }
 
-
-  @Override
-  public <T extends Resource> T fetch(ResourceMap<T> map, Key key) {
-    String sql = "SELECT * FROM " + quoteSystemIdentifier(map.getName())
-            + " WHERE ";
-    for(int i=0; i<key.getFieldCount(); ++i) {
-      if (i > 0) {
-        sql += " AND ";
-      }
-      sql += quoteSystemIdentifier(key.getField(i).getName());
-      sql += "=?";
+  /**
+   * Report the execution started at the given time along with the time
+   * spent on preparing its statements, and log it if it has been slow
+   */
+  private void recordExecute(ResourceMap<?> map, Operation operation, PreparedStatement stmt, String sql,
+                             long start, int rows) {
+    if (!timed) {
+      return;
     }
 
-    PreparedStatement stmt;
-    ResultSet rs;
-    try {
-      stmt = connection.prepareStatement(sql);
-      for(int i=0; i<key.getFieldCount(); ++i) {
-        getStore().getJDBCFieldType(key.getField(i).getType()).setValue(stmt, i+1, key.getValue(i));
-      }
-      rs = stmt.executeQuery();
-    } catch(SQLException e) {
-      throw new StoreException("Error while executing - " + sql, e);
+    long elapsed = System.nanoTime() - start;
+    if (metrics != null) {
+      long prepared = executePrepareNanos;
+      executePrepareNanos = 0;
+      metrics.onExecute(map, operation, prepared, elapsed, rows);
     }
 
-    // Create a RecordSet that does all the transformation
-    JDBCRecordSet<T> recordSet = new JDBCRecordSet<T>(getStore(), stmt, map, rs);
+    if (slowNanos > 0 && elapsed >= slowNanos) {
+      logSlowStatement(map, operation, stmt, sql, elapsed, rows);
+    }
+  }
 
-    if (recordSet.hasNext()) {
-      T res = recordSet.next();
+  private void logSlowStatement(ResourceMap<?> map, Operation operation, PreparedStatement stmt, String sql,
+                                long elapsed, int rows) {
+    StringBuilder msg = new StringBuilder("Slow statement on ");
+    msg.append(map.getName());
+    msg.append(' ');
+    msg.append(operation);
+    msg.append(String.format(" took %.3f ms", elapsed / 1e6));
+    if (!operation.isQuery()) {
+      msg.append(", ");
+      msg.append(rows);
+      msg.append(" rows");
+    }
+    msg.append(" - ");
+    msg.append(sql);
+    if (binds.isBound(stmt)) {
+      msg.append(" with ");
+      msg.append(binds.format(stmt));
+    }
 
-      // If there are more than one records, then raise an error flag and iterate
-      // through them, to make sure the record set is closed properly
-      while(recordSet.hasNext()) {
-        Store.LOGGER.warn("More than one record retrieved in fetch for " + map.getName() + " for id " + key);
+    if (getStore().tryExplain()) {
+      String plan = explain(stmt, sql, operation.isQuery());
+      if (plan != null) {
+        msg.append('\n');
+        msg.append(plan);
       }
+    }
 
-      return res;
-    } else {
+    Store.LOGGER.warn(msg.toString());
+  }
+
+  /**
+   * Retrieve the execution plan of the given statement with its bound
+   * values. The plan is retrieved within a savepoint, so a failure does not
+   * abort the transaction of the session.
+   */
+  private String explain(PreparedStatement stmt, String sql, boolean query) {
+    String explainSql = getStore().getDialect().getExplainSql(sql, query);
+    if (explainSql == null) {
       return null;
     }
+
+    Savepoint explainSavepoint = null;
+    try {
+      explainSavepoint = connection.setSavepoint();
+      StringBuilder plan = new StringBuilder();
+      try (PreparedStatement explainStmt = connection.prepareStatement(explainSql)) {
+        if (binds.isBound(stmt)) {
+          binds.bind(stmt, explainStmt);
+        }
+
+        try (ResultSet rs = explainStmt.executeQuery()) {
+          int columns = rs.getMetaData().getColumnCount();
+          while(rs.next()) {
+            for(int i=1; i<=columns; ++i) {
+              if (i > 1) {
+                plan.append(' ');
+              }
+              plan.append(rs.getString(i));
+            }
+            plan.append('\n');
+          }
+        }
+      }
+      connection.releaseSavepoint(explainSavepoint);
+      return plan.toString();
+    } catch(SQLException e) {
+      if (explainSavepoint != null) {
+        try {
+          connection.rollback(explainSavepoint);
+        } catch(SQLException ex) {
+          Store.LOGGER.warn("Error while rolling back the plan of " + sql + " - " + ex.getMessage());
+        }
+      }
+      return "Could not retrieve the plan - " + e.getMessage();
+    }
   }
 
-  private Object insertOrUpdateReference(ResourceMap map, ObjectNode node) {
-    JsonNode idNode = map.getPrimaryKey(node).toJson();
-    if (idNode == null || idNode.isNull()) {
-      // Definitely an insert
-      return insert(map, node);
+  void releaseStatement(String sql, PreparedStatement stmt) {
+    if (binds != null) {
+      binds.release(stmt);
+    }
+    if (statementCache == null) {
+      try {
+        stmt.close();
+      } catch(SQLException e) {
+        Store.LOGGER.warn("Error while closing statement - " + sql);
+      }
     } else {
-      // TODO It could be an update or an insert (Special case where id may be reference to another resource)
-      //if (idNode.isObject() && map.getPrimaryField().getType().isReference()) {
-      //  return insertOrUpdateReference((ResourceMap)map.getPrimaryField().getType(), (ObjectNode)idNode);
-      //} else {
-      return update(map, node);
-      //}
+      statementCache.release(sql, stmt);
     }
   }
 
-  @Override
-  public <T extends Resource> ResourceCache<T> insert(ResourceMap<T> map, ObjectNode node) throws StoreException {
+  public <T extends Resource> void createTable(Class<T> clazz) {
+    ResourceMap<T> map = getStore().getRegistrar().getResourceMap(clazz);
 
-    StringBuilder sqlBuilder = new StringBuilder();
-    StringBuilder placeHolders = new StringBuilder();
-    sqlBuilder.append("INSERT INTO ");
-    sqlBuilder.append(quoteSystemIdentifier(map.getName()));
-    sqlBuilder.append('(');
-    boolean first = true;
-    for(int i=0; i<map.getFieldsCount(); ++i) {
-      FieldMap fieldMap =  map.getFieldMap(i);
+    JDBCResourcePlan<T> plan = getStore().getPlan(map);
 
-      // skip the many relationships
-      if (fieldMap.getType().isMany() || fieldMap.isTransient()) {
-        continue;
+    String sql = "CREATE TABLE IF NOT EXISTS " + plan.getTableName() + "(";
+    for(int i=0; i<plan.getFieldsCount(); ++i) {
+      if (i > 0) {
+        sql += ",";
       }
 
-      if (!first) {
-        sqlBuilder.append(',');
-        placeHolders.append(',');
+      FieldMap fieldMap = plan.getField(i);
+      if (plan.getKeyFieldsCount() == 1 && fieldMap.isKey()) {
+        // A single field key is generated by the database
+        sql += plan.getColumnName(i) + " " + getStore().getDialect().getKeyTypeName(fieldMap.getType());
       } else {
-        first = false;
+        sql += plan.getColumnName(i) + " " + getTypeName(fieldMap.getType());
       }
-      sqlBuilder.append(quoteSystemIdentifier(fieldMap.getName()));
-      placeHolders.append('?');
     }
 
-    sqlBuilder.append(") VALUES (");
-    sqlBuilder.append(placeHolders);
-    sqlBuilder.append(");");
-
-    List<Many> manyList = new ArrayList<>();
-    // insert all the values
-    try (PreparedStatement stmt = connection.prepareStatement(sqlBuilder.toString(), Statement.RETURN_GENERATED_KEYS)) {
-      int columnIndex = 0;
-      for (int i = 0; i < map.getFieldsCount(); ++i) {
-        FieldMap fieldMap = map.getFieldMap(i);
-        if (fieldMap.getType().isMany()) {
-          //manyList.add((Many)fieldMap.get(resource));
-          continue;
-        }
-
-        if (fieldMap.isTransient()) {
-          continue;
-        }
-
-        // Get the JsonNode first
-        JsonNode valueNode = node.get(fieldMap.getName());
-        Object fieldValue;
-        if (valueNode == null) {
-          // the value has not been provided, use the default value
-          fieldValue = fieldMap.getDefaultValue();
-        } else {
-          if (fieldMap.getType().isReference()) {
-            ResourceMap referenced = (ResourceMap) fieldMap.getType();
-            // in case of reference, we might need to do a recursive insert
-            // TODO looks like things got complicated here because of ComplexKeys
-            // Both the complex key and a reference to object would be a ObjectNode
-            if (valueNode.isObject()) {
-              fieldValue = insertOrUpdateReference(referenced, (ObjectNode)valueNode);
-            } else {
-              fieldValue = referenced.getPrimaryKey(valueNode.toString());
-            }
-          } else {
-            fieldValue = fieldMap.getType().fromJson(valueNode);
-          }
+    // The primary key constraint is needed for the ON CONFLICT of the upserts
+    if (plan.getKeyFieldsCount() > 0) {
+      sql += ",PRIMARY KEY(";
+      for(int i=0; i<plan.getKeyFieldsCount(); ++i) {
+        if (i > 0) {
+          sql += ",";
         }
+        sql += quoteSystemIdentifier(plan.getKeyField(i).getName());
+      }
+      sql += ")";
+    }
+    sql += ");";
 
-        try {
-          getStore().getJDBCFieldType(fieldMap.getType()).setValue(stmt, ++columnIndex, fieldValue);
-        } catch(SQLException e) {
-          throw new StoreException("Could not convert " + fieldValue + " for " + fieldMap.getFullName(), e);
-        }
+    try (Statement stmt = connection.createStatement()) {
+      stmt.executeUpdate(sql);
+    } catch(SQLException e) {
+      throw new StoreException("Error while executing " + sql, e);
+    }
 
-      }
+    // Create the join tables for the Many relations
+    for(JDBCRelation relation : getStore().registerRelations(map, clazz)) {
+      sql = "CREATE TABLE IF NOT EXISTS " + relation.getTableName() + "("
+              + quoteSystemIdentifier(JDBCRelation.PARENT_COLUMN) + " " + getTypeName(relation.getParent().getKeyField(0).getType()) + ","
+              + quoteSystemIdentifier(JDBCRelation.CHILD_COLUMN) + " " + getTypeName(relation.getChild().getKeyField(0).getType()) + ","
+              + quoteSystemIdentifier(JDBCRelation.POSITION_COLUMN) + " INTEGER);";
 
-      int affectedRows;
-      try {
-        affectedRows = stmt.executeUpdate();
-      } catch (SQLException e) {
-        throw new StoreException("Error while executing " + sqlBuilder.toString(), e);
-      }
-      if (affectedRows != 1) {
-        throw new StoreException("Could not retrieve the automatically generated id");
+      try (Statement stmt = connection.createStatement()) {
+        stmt.executeUpdate(sql);
+      } catch(SQLException e) {
+        throw new StoreException("Error while executing " + sql, e);
       }
+    }
 
-      try (ResultSet keys = stmt.getGeneratedKeys()) {
-        if (keys.next()) {
-          Key key = map.getPrimaryKey(node);
-          for(int i=0; i<key.getFieldCount(); ++i) {
-            FieldMap keyField = key.getField(i);
-            Object keyValue = getStore().getJDBCFieldType(keyField.getType()).getValue(keys, i + 1);
-            node.set(keyField.getName(), keyField.getType().toJSON(keyValue));
-          }
+    ensureIndexes(clazz);
+  }
 
-          //checkAndUpdate(manyList);
+  /**
+   * Create the indexes of the resource table and its join tables that do
+   * not exist yet (see {@link JDBCIndex}). Run by {@link #createTable(Class)}
+   * and safe to run again on every start, for bringing the existing
+   * databases up to date. A table created without a primary key gets a
+   * unique index on its key instead, as needed by the upserts.
+   */
+  public <T extends Resource> void ensureIndexes(Class<T> clazz) {
+    ResourceMap<T> map = getStore().getRegistrar().getResourceMap(clazz);
+    JDBCResourcePlan<T> plan = getStore().getPlan(map);
 
-          return new ResourceCache(this, map, null, node);
-        } else {
-          throw new StoreException("Generated Key not found while inserting new record for " + map.getName());
-        }
-      } catch (SQLException e) {
-        throw new StoreException("Error while trying to retrieve generated keys", e);
+    List<JDBCIndex> indexes = JDBCIndex.resolve(getStore(), plan, clazz, getStore().registerRelations(map, clazz));
+    if (plan.getKeyFieldsCount() > 0 && !hasPrimaryKey(map.getName())) {
+      JDBCIndex keyIndex = new JDBCIndex(map.getName() + "_key_idx", plan.getTableName(), true);
+      for(int i=0; i<plan.getKeyFieldsCount(); ++i) {
+        keyIndex.addColumn(quoteSystemIdentifier(plan.getKeyField(i).getName()));
       }
+      indexes.add(0, keyIndex);
+    }
 
-    } catch (SQLException e) {
-      throw new StoreException("Error while preparing " + sqlBuilder.toString(), e);
+    for(JDBCIndex index : indexes) {
+      String sql = index.getCreateSql(getStore());
+      try (Statement stmt = connection.createStatement()) {
+        stmt.executeUpdate(sql);
+      } catch(SQLException e) {
+        throw new StoreException("Error while executing " + sql, e);
+      }
     }
   }
 
-  @Override
-  public <T extends Resource> ResourceCache<T> update(ResourceMap<T> map, ObjectNode node) {
-    StringBuilder sqlBuilder = new StringBuilder();
-    sqlBuilder.append("UPDATE ");
-    sqlBuilder.append(quoteSystemIdentifier(map.getName()));
-    sqlBuilder.append(" SET");
+  private boolean hasPrimaryKey(String tableName) {
+    try (ResultSet rs = connection.getMetaData().getPrimaryKeys(null, null, tableName)) {
+      return rs.next();
+    } catch(SQLException e) {
+      throw new StoreException("Could not retrieve the primary key of " + tableName, e);
+    }
+  }
 
-    boolean first = true;
+  public String getTypeName(DataType type) {
+    return getStore().getDialect().getTypeName(type);
+  }
 
-    FieldMap fields[] = new FieldMap[map.getFieldsCount()];
-    JsonNode values[] = new JsonNode[map.getFieldsCount()];
-    int valuesCount = 0;
+  /**
+   * Run the engine as a session of the given group commit, on its shared
+   * connection
+   */
+  void joinGroupCommit(JDBCGroupCommit groupCommit, Savepoint savepoint) {
+    this.groupCommit = groupCommit;
+    this.savepoint = savepoint;
+  }
 
-    Key key = map.getPrimaryKey(node);
+  /**
+   * Run the engine as a session nested in the given session of the same
+   * thread, on its connection. The nested session is committed along with
+   * the outer one, and only its own changes are discarded when it is closed
+   * without a commit.
+   */
+  void nestIn(EngineJDBC outer, Savepoint savepoint) {
+    this.outer = outer;
+    this.savepoint = savepoint;
+  }
 
-    for(int i=0; i<map.getFieldsCount(); ++i) {
-      FieldMap fieldMap = map.getFieldMap(i);
+  @Override
+  public void doCommit() {
+    if (metrics == null) {
+      commitSession();
+    } else {
+      long start = System.nanoTime();
+      commitSession();
+      metrics.onCommit(System.nanoTime() - start);
+    }
 
-      if (fieldMap.getType().isMany() || fieldMap.isTransient() || !node.has(fieldMap.getName())) {
-        // Skip the Many relationship, transients and the ones that are not
-        // available in the node
-        continue;
+    if (outer != null) {
+      // Invalidated once the outer session commits
+      outer.inheritInvalidations(cacheInvalidations);
+      cacheInvalidations = null;
+      if (outer.snapshots != null) {
+        // The records read by the outer session may have been changed
+        outer.snapshots.clear();
       }
+    } else {
+      invalidateCache();
+    }
+  }
 
-      if (fieldMap.isKey()) {
-        // no need to add the primary key field as well
-        continue;
-      }
+  private void inheritInvalidations(Map<ResourceMap<?>, List<Key>> invalidations) {
+    if (invalidations == null) {
+      return;
+    }
 
-      if (!first) {
-        sqlBuilder.append(',');
+    for(Map.Entry<ResourceMap<?>, List<Key>> entry : invalidations.entrySet()) {
+      if (entry.getValue() == null) {
+        if (cacheInvalidations == null) {
+          cacheInvalidations = new HashMap<>();
+        }
+        cacheInvalidations.put(entry.getKey(), null);
       } else {
-        first = false;
+        for(Key key : entry.getValue()) {
+          invalidateOnCommit(entry.getKey(), key);
+        }
       }
-      sqlBuilder.append(fieldMap.getName());
-      sqlBuilder.append("=?");
+    }
+  }
 
-      fields[valuesCount] = fieldMap;
-      values[valuesCount] = node.get(fieldMap.getName());
-      valuesCount += 1;
+  /**
+   * Invalidate the cached record once the session is committed. Till then,
+   * the session reads the records of the map from the database. The record
+   * as read by the session is no more known for the dirty tracking.
+   */
+  private void invalidateOnCommit(ResourceMap<?> map, Key key) {
+    if (snapshots != null) {
+      snapshots.remove(new JDBCRecordKey(map, key));
     }
 
-    sqlBuilder.append(" WHERE ");
-    for(int i=0; i<key.getFieldCount(); ++i) {
-      if (i > 0) {
-        sqlBuilder.append(" AND ");
+    if (resourceCache == null) {
+      return;
+    }
+
+    if (cacheInvalidations == null) {
+      cacheInvalidations = new HashMap<>();
+    }
+    List<Key> keys = cacheInvalidations.get(map);
+    if (keys == null) {
+      if (cacheInvalidations.containsKey(map)) {
+        // The whole map is invalidated already
+        return;
       }
-      sqlBuilder.append(key.getField(i).getName());
-      sqlBuilder.append("=?");
+      keys = new ArrayList<>();
+      cacheInvalidations.put(map, keys);
     }
 
-    try (PreparedStatement stmt = connection.prepareStatement(sqlBuilder.toString())) {
-      // fill up all the '?';
-      for(int i=0; i<valuesCount; ++i) {
-        FieldMap fieldMap = fields[i];
-        JsonNode nodeValue = values[i];
+    if (keys.size() >= MAX_CACHE_INVALIDATIONS) {
+      cacheInvalidations.put(map, null);
+    } else {
+      keys.add(key);
+    }
+  }
 
-        if (nodeValue == null || nodeValue.isNull()) {
-          stmt.setObject(i+1, null);
-        } else {
-          Object fieldValue;
-          if (fieldMap.getType().isReference() && nodeValue.isObject()) {
-            fieldValue = insertOrUpdateReference((ResourceMap) fieldMap.getType(), (ObjectNode) nodeValue);
-          } else {
-            fieldValue = fieldMap.getType().fromJson(nodeValue);
-          }
+  private void invalidateCache() {
+    if (cacheInvalidations == null) {
+      return;
+    }
 
-          try {
-            getStore().getJDBCFieldType(fieldMap.getType()).setValue(stmt, i + 1, fieldValue);
-          } catch(SQLException e) {
-            throw new StoreException("Could not set " + fieldMap.getFullName() + " with " + fieldValue, e);
-          }
+    for(Map.Entry<ResourceMap<?>, List<Key>> entry : cacheInvalidations.entrySet()) {
+      if (entry.getValue() == null) {
+        resourceCache.invalidate(entry.getKey());
+      } else {
+        for(Key key : entry.getValue()) {
+          resourceCache.invalidate(entry.getKey(), key);
+        }
+      }
+    }
+    cacheInvalidations = null;
+  }
 
+  private void commitSession() {
+    if (outer != null) {
+      if (savepoint != null) {
+        Savepoint sessionSavepoint = savepoint;
+        savepoint = null;
+        try {
+          connection.releaseSavepoint(sessionSavepoint);
+        } catch(SQLException e) {
+          throw new StoreException("Error while committing nested session", e);
         }
       }
+      return;
+    }
 
-      // Set the primary key value
+    if (groupCommit != null) {
+      if (savepoint != null) {
+        Savepoint sessionSavepoint = savepoint;
+        savepoint = null;
+        groupCommit.commit(sessionSavepoint);
+      }
+      return;
+    }
 
-      for(int i=0; i<key.getFieldCount(); ++i) {
-        FieldMap keyField = key.getField(i);
+    try {
+      connection.commit();
+    } catch(SQLException e) {
+      throw new StoreException("Error while committing session", e);
+    }
+  }
+
+  @Override
+  public void doClose() {
+    // The changes not committed are rolled back, nothing to invalidate
+    cacheInvalidations = null;
+
+    if (outer != null) {
+      // The connection and its statements stay with the outer session
+      if (savepoint != null) {
+        Savepoint sessionSavepoint = savepoint;
+        savepoint = null;
         try {
-          getStore().getJDBCFieldType(keyField.getType()).setValue(stmt, valuesCount + 1, key.getValue(i));
+          connection.rollback(sessionSavepoint);
         } catch(SQLException e) {
-          throw new StoreException("Could not set primary key value for " + keyField.getFullName() + " with " + key.getValue(i), e);
+          throw new StoreException("Error while rolling back nested session", e);
         }
       }
+      return;
+    }
 
-      try {
-        stmt.executeUpdate();
-      } catch(SQLException e) {
-        throw new StoreException("Error while executing sql - " + sqlBuilder.toString(), e);
+    if (groupCommit != null) {
+      // The connection stays with the group commit
+      if (statementCache != null) {
+        statementCache.reclaim();
+      }
+      if (savepoint != null) {
+        Savepoint sessionSavepoint = savepoint;
+        savepoint = null;
+        groupCommit.rollback(sessionSavepoint);
       }
+      return;
+    }
 
-      return new ResourceCache(this, map, key, node);
+    getStore().releaseWriter(this);
+    try {
+      if (statementCache != null) {
+        statementCache.reclaim();
+      }
+      connection.rollback();
+      connection.close();
+    } catch(SQLException e) {
+      throw new StoreException("Error while closing engine connection", e);
+    }
+  }
+
+  @Override
+  public <T extends Resource> JDBCRecordSet<T> fetchAll(ResourceMap<T> map) throws StoreException {
+    return fetchAll(map, getStore().getFetchSize());
+  }
 
+  /**
+   * Retrieve all the records of the given map, streaming them from the
+   * database in chunks of fetchSize rows. The statement is forward only and
+   * read only (the JDBC defaults), and since the engine never runs in
+   * autocommit mode, Postgres uses a server side cursor for it. The memory
+   * used is therefore bounded by the fetch size and not by the table size.
+   *
+   * The records must be consumed before the session is committed, and the
+   * record set closed if it is not iterated till the end.
+   *
+   * @param fetchSize The number of rows retrieved per round trip, 0 leaves
+   *                  it to the driver (which may load everything at once)
+   */
+  public <T extends Resource> JDBCRecordSet<T> fetchAll(ResourceMap<T> map, int fetchSize) throws StoreException {
+    String sql = getStore().getPlan(map).getSelectAllSql();
+
+    PreparedStatement stmt;
+    ResultSet rs;
+    try {
+      stmt = prepareStatement(sql);
+      long start = startTimer();
+      stmt.setFetchSize(fetchSize);
+      rs = stmt.executeQuery();
+      recordExecute(map, Operation.FETCH_ALL, stmt, sql, start, 0);
     } catch(SQLException e) {
-      throw new StoreException("Error while preparing sql - " + sqlBuilder.toString(), e);
+      throw new StoreException("Error while executing sql - " + sql, e);
     }
+
+    // The scan is not kept for the dirty tracking, it could be the whole table
+    return new JDBCRecordSet<T>(this, stmt, sql, map, rs, false, false);
   }
 
-  private void checkAndUpdate(List<Many> manyList) {
-    for(Many item:manyList) {
+  /**
+   * Retrieve all the records of the given map with only the columns of the
+   * given fields, for the views that need a few fields of wide tables. The
+   * key and primary field columns are always selected. The resources are
+   * partial, the fields not selected keep their default values (or their
+   * current values for the resources already in the map), and must not be
+   * saved back as such. The records are streamed the same way as
+   * {@link #fetchAll(ResourceMap, int)}.
+   */
+  public <T extends Resource> JDBCRecordSet<T> fetchAll(ResourceMap<T> map, FieldMap... fields) throws StoreException {
+    String sql = getStore().getPlan(map).getProjectionSql(fields);
 
+    PreparedStatement stmt;
+    ResultSet rs;
+    try {
+      stmt = prepareStatement(sql);
+      long start = startTimer();
+      stmt.setFetchSize(getStore().getFetchSize());
+      rs = stmt.executeQuery();
+      recordExecute(map, Operation.FETCH_ALL, stmt, sql, start, 0);
+    } catch(SQLException e) {
+      throw new StoreException("Error while executing sql - " + sql, e);
     }
+
+    return new JDBCRecordSet<T>(this, stmt, sql, map, rs, true);
   }
 
-  @Override
-  public <T extends Resource> ResourceCache<T> delete(ResourceMap<T> map, Key key)
+  /**
+   * Write all the records of the given map to the generator as a JSON array
+   * of objects, straight from the ResultSet without creating the resources,
+   * for streaming large lists with a constant memory. The objects are the
+   * same as the JSON of the resources (see {@link JDBCJsonWriter}) and the
+   * records are streamed the same way as {@link #fetchAll(ResourceMap, int)}.
+   * The generator is neither flushed nor closed.
+   *
+   * @param fields The fields to be written along with the key and primary
+   *               fields, all the fields when none are given
+   * @return The number of records written
+   */
+  public <T extends Resource> int writeAll(ResourceMap<T> map, JsonGenerator generator, FieldMap... fields)
           throws StoreException {
-    String sql = "DELETE FROM " + quoteSystemIdentifier(map.getName()) +
-            "WHERE ";
-    for(int i=0; i<key.getFieldCount(); ++i) {
-      if (i > 0) {
-        sql += " AND ";
-      }
-      sql += quoteSystemIdentifier(key.getField(i).getName());
-      sql += "=?";
-    }
+    JDBCResourcePlan<T> plan = getStore().getPlan(map);
+    String sql = fields.length == 0 ? plan.getSelectAllSql() : plan.getProjectionSql(fields);
 
-    PreparedStatement stmt = null;
+    PreparedStatement stmt;
     try {
-      stmt = connection.prepareStatement(sql);
-    } catch (SQLException e) {
+      stmt = prepareStatement(sql);
+    } catch(SQLException e) {
       throw new StoreException("Error while preparing sql - " + sql, e);
     }
 
-    for(int i=0; i<key.getFieldCount(); ++i) {
-      FieldMap keyField = key.getField(i);
+    int count = 0;
+    try {
+      long start = startTimer();
+      stmt.setFetchSize(getStore().getFetchSize());
+      try (ResultSet rs = stmt.executeQuery()) {
+        recordExecute(map, Operation.FETCH_ALL, stmt, sql, start, 0);
+
+        start = startTimer();
+        JDBCJsonWriter writer = new JDBCJsonWriter(plan, rs);
+        generator.writeStartArray();
+        while(rs.next()) {
+          writer.write(rs, generator);
+          count += 1;
+        }
+        generator.writeEndArray();
+        if (metrics != null) {
+          metrics.onRead(map, count, System.nanoTime() - start);
+        }
+      }
+    } catch(SQLException e) {
+      throw new StoreException("Error while executing sql - " + sql, e);
+    } catch(IOException e) {
+      throw new StoreException("Error while writing the records of " + map.getName(), e);
+    } finally {
+      releaseStatement(sql, stmt);
+    }
+    return count;
+  }
+
+  /**
+   * Write all the records of the given map to the stream as a UTF-8 JSON
+   * array, see {@link #writeAll(ResourceMap, JsonGenerator, FieldMap...)}.
+   * The stream is flushed but not closed.
+   */
+  public <T extends Resource> int writeAll(ResourceMap<T> map, OutputStream out, FieldMap... fields)
+          throws StoreException {
+    try (JsonGenerator generator = JSON_FACTORY.createGenerator(out)) {
+      return writeAll(map, generator, fields);
+    } catch(IOException e) {
+      throw new StoreException("Error while writing the records of " + map.getName(), e);
+    }
+  }
+
+
+  /**
+   * Retrieve a page of records ordered by the primary key using the keyset
+   * (seek) pagination. Unlike OFFSET, the database seeks directly to the key
+   * so every page costs the same irrespective of how deep it is.
+   *
+   * @param after The key of the last record of the previous page (see
+   *              {@link JDBCPage#getNextKey()}), null for the first page
+   * @param limit The maximum number of records on the page
+   */
+  public <T extends Resource> JDBCPage<T> fetchPage(ResourceMap<T> map, Key after, int limit) throws StoreException {
+    if (limit < 1) {
+      throw new IllegalArgumentException("Page limit must be at least 1");
+    }
+
+    JDBCResourcePlan<T> plan = getStore().getPlan(map);
+    String sql = after == null ? plan.getFirstPageSql() : plan.getNextPageSql();
+
+    PreparedStatement stmt;
+    ResultSet rs;
+    try {
+      stmt = prepareStatement(sql);
+      long start = startTimer();
+      int index = 0;
+      if (after != null) {
+        for(int i=0; i<after.getFieldCount(); ++i) {
+          for(int j=0; j<=i; ++j) {
+            bind(plan.getKeyMapper(j), stmt, ++index, after.getValue(j));
+          }
+        }
+      }
+      stmt.setInt(++index, limit);
+      logBind(stmt, index, limit);
+      stmt.setFetchSize(limit);
+      rs = stmt.executeQuery();
+      recordExecute(map, Operation.FETCH_PAGE, stmt, sql, start, 0);
+    } catch(SQLException e) {
+      throw new StoreException("Error while executing sql - " + sql, e);
+    }
+
+    JDBCRecordSet<T> recordSet = new JDBCRecordSet<T>(this, stmt, sql, map, rs);
+    recordSet.trackKeys(plan);
+    return new JDBCPage<>(recordSet, limit);
+  }
+
+  /**
+   * Retrieve the record with the given key, from the resource cache of the
+   * store when enabled. The cache is bypassed for the maps modified by the
+   * session, or by the sessions it is nested in, till it is committed.
+   */
+  @Override
+  public <T extends Resource> T fetch(ResourceMap<T> map, Key key) {
+    if (resourceCache == null || isModified(map)) {
+      return fetchRecord(map, key);
+    }
+
+    JDBCResourcePlan<T> plan = getStore().getPlan(map);
+    T res = resourceCache.get(plan, key);
+    if (res == null) {
+      res = fetchRecord(map, key);
+      if (res != null) {
+        resourceCache.put(plan, key, res, cacheGeneration);
+      }
+    }
+    return res;
+  }
+
+  private boolean isModified(ResourceMap<?> map) {
+    for(EngineJDBC engine = this; engine != null; engine = engine.outer) {
+      if (engine.cacheInvalidations != null && engine.cacheInvalidations.containsKey(map)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private <T extends Resource> T fetchRecord(ResourceMap<T> map, Key key) {
+    JDBCResourcePlan<T> plan = getStore().getPlan(map);
+    String sql = plan.getFetchSql();
+
+    PreparedStatement stmt;
+    ResultSet rs;
+    try {
+      stmt = prepareStatement(sql);
+      long start = startTimer();
+      for(int i=0; i<key.getFieldCount(); ++i) {
+        bind(plan.getKeyMapper(i), stmt, i+1, key.getValue(i));
+      }
+      rs = stmt.executeQuery();
+      recordExecute(map, Operation.FETCH, stmt, sql, start, 0);
+    } catch(SQLException e) {
+      throw new StoreException("Error while executing - " + sql, e);
+    }
+
+    // Create a RecordSet that does all the transformation
+    JDBCRecordSet<T> recordSet = new JDBCRecordSet<T>(this, stmt, sql, map, rs);
+
+    if (recordSet.hasNext()) {
+      T res = recordSet.next();
+
+      // If there are more than one records, then raise an error flag and iterate
+      // through them, to make sure the record set is closed properly
+      while(recordSet.hasNext()) {
+        Store.LOGGER.warn("More than one record retrieved in fetch for " + map.getName() + " for id " + key);
+      }
+
+      return res;
+    } else {
+      return null;
+    }
+  }
+
+  /**
+   * Retrieve the records for all the given keys with as few round trips as
+   * possible. Where the store supports array parameters (Postgres), all the
+   * keys go in a single = ANY(?) query, otherwise the keys are sent in chunks
+   * of IN (?,?,...) lists. The records go through the same map.find(id)
+   * identity as the other fetches.
+   *
+   * @return The records found, keyed by their id. The keys that were not
+   *         found are missing from the map
+   */
+  public <T extends Resource> Map<Object, T> fetchMany(ResourceMap<T> map, Collection<Key> keys) throws StoreException {
+    Map<Object, T> result = new LinkedHashMap<>();
+    if (keys.isEmpty()) {
+      return result;
+    }
+
+    JDBCResourcePlan<T> plan = getStore().getPlan(map);
+    String arrayType = plan.getKeyFieldsCount() == 1
+            ? getStore().getDialect().getArrayTypeName(plan.getKeyField(0).getType()) : null;
+
+    if (arrayType != null) {
+      Object[] values = new Object[keys.size()];
+      int index = 0;
+      for(Key key : keys) {
+        values[index++] = key.getValue(0);
+      }
+
+      String sql = plan.getFetchAnySql();
+      PreparedStatement stmt;
+      ResultSet rs;
+      Array array;
       try {
-        getStore().getJDBCFieldType(keyField.getType()).setValue(stmt, i+1, key.getValue(i));
-      } catch (SQLException e) {
-        throw new StoreException("Could not set primary key value for " + keyField.getFullName() + " with " + key.getValue(i));
+        array = connection.createArrayOf(arrayType, values);
+        stmt = prepareStatement(sql);
+        long start = startTimer();
+        stmt.setArray(1, array);
+        logBind(stmt, 1, array);
+        rs = stmt.executeQuery();
+        recordExecute(map, Operation.FETCH_MANY, stmt, sql, start, 0);
+      } catch(SQLException e) {
+        throw new StoreException("Error while executing - " + sql, e);
+      }
+
+      try {
+        collect(new JDBCRecordSet<T>(this, stmt, sql, map, rs), result);
+      } finally {
+        try {
+          array.free();
+        } catch(SQLException e) {
+          Store.LOGGER.warn("Error while freeing array parameter of " + sql);
+        }
+      }
+      return result;
+    }
+
+    List<Key> list = keys instanceof List ? (List<Key>)keys : new ArrayList<>(keys);
+    int chunk = plan.getMaxFetchManyKeys();
+    for(int from=0; from<list.size(); from+=chunk) {
+      int count = Math.min(chunk, list.size() - from);
+      int size = plan.getFetchManySize(count);
+      String sql = plan.getFetchManySql(count);
+
+      PreparedStatement stmt;
+      ResultSet rs;
+      try {
+        stmt = prepareStatement(sql);
+        long start = startTimer();
+        int index = 0;
+        for(int i=0; i<size; ++i) {
+          // pad the extra parameters with the last key
+          Key key = list.get(from + Math.min(i, count - 1));
+          for(int j=0; j<plan.getKeyFieldsCount(); ++j) {
+            bind(plan.getKeyMapper(j), stmt, ++index, key.getValue(j));
+          }
+        }
+        rs = stmt.executeQuery();
+        recordExecute(map, Operation.FETCH_MANY, stmt, sql, start, 0);
+      } catch(SQLException e) {
+        throw new StoreException("Error while executing - " + sql, e);
+      }
+
+      collect(new JDBCRecordSet<T>(this, stmt, sql, map, rs), result);
+    }
+
+    return result;
+  }
+
+  private <T extends Resource> void collect(JDBCRecordSet<T> recordSet, Map<Object, T> result) {
+    while(recordSet.hasNext()) {
+      T res = recordSet.next();
+      result.put(recordSet.getLastId(), res);
+    }
+  }
+
+  /**
+   * Retrieve the value to be stored in the column of a reference field. A
+   * reference given as an object is saved first (with a single upsert when
+   * its key is known) and the value of its primary field is used.
+   */
+  Object referenceValue(ResourceMap referenced, JsonNode valueNode) {
+    if (valueNode == null || valueNode.isNull()) {
+      return null;
+    }
+
+    FieldMap primaryField = referenced.getPrimaryField();
+    if (valueNode.isObject()) {
+      ObjectNode node = (ObjectNode) valueNode;
+      upsert(referenced, node);
+      valueNode = node.get(primaryField.getName());
+    }
+
+    if (primaryField.getType().isReference()) {
+      return referenceValue((ResourceMap) primaryField.getType(), valueNode);
+    } else {
+      return primaryField.getType().fromJson(valueNode);
+    }
+  }
+
+  private boolean supportsUpsert() {
+    if (upsert == null) {
+      try {
+        upsert = getStore().getDialect().supportsUpsert(connection);
+      } catch(SQLException e) {
+        throw new StoreException("Could not determine the upsert support", e);
+      }
+    }
+    return upsert;
+  }
+
+  /**
+   * Checks if all the key fields are available in the node, in which case it
+   * can be saved as an upsert, otherwise it has to be inserted for the keys
+   * to be generated.
+   */
+  private static boolean hasKey(JDBCResourcePlan<?> plan, ObjectNode node) {
+    for(int i=0; i<plan.getKeyFieldsCount(); ++i) {
+      JsonNode keyNode = node.get(plan.getKeyField(i).getName());
+      if (keyNode == null || keyNode.isNull()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Insert the record, or update the existing record with the same key,
+   * with a single INSERT ... ON CONFLICT DO UPDATE statement. Only the fields
+   * available in the node are overwritten on an existing record. The records
+   * without a key are inserted with {@link #insert(ResourceMap, ObjectNode)}
+   * for the keys to be generated.
+   *
+   * On the databases without the upsert syntax, an UPDATE is tried first and
+   * the record is inserted if it did not exist.
+   */
+  public <T extends Resource> ResourceCache<T> upsert(ResourceMap<T> map, ObjectNode node) throws StoreException {
+    JDBCResourcePlan<T> plan = getStore().getPlan(map);
+    if (!hasKey(plan, node)) {
+      return insert(map, node);
+    } else if (!supportsUpsert()) {
+      return updateOrInsert(plan, node);
+    }
+
+    String sql = plan.getUpsertSql(node);
+    PreparedStatement stmt;
+    try {
+      stmt = prepareStatement(sql);
+    } catch(SQLException e) {
+      throw new StoreException("Error while preparing sql - " + sql, e);
+    }
+
+    try {
+      long start = startTimer();
+      bindInsert(plan, stmt, node, true);
+      try {
+        recordExecute(map, Operation.UPSERT, stmt, sql, start, stmt.executeUpdate());
+      } catch(SQLException e) {
+        throw new StoreException("Error while executing sql - " + sql, e);
+      }
+
+      Key key = map.getPrimaryKey(node);
+      invalidateOnCommit(map, key);
+      saveRelations(plan, node);
+      return new ResourceCache(this, map, key, node);
+    } finally {
+      releaseStatement(sql, stmt);
+    }
+  }
+
+  /**
+   * Upsert all the given nodes using JDBC batches of
+   * {@link StoreJDBC#getBatchSize()} records, the same way as
+   * {@link #updateAll(ResourceMap, Iterable)} does. The nodes without a key
+   * are inserted individually in between.
+   *
+   * @return The ResourceCache for each of the nodes in the same order
+   */
+  public <T extends Resource> List<ResourceCache<T>> upsertAll(ResourceMap<T> map, Iterable<ObjectNode> nodes)
+          throws StoreException {
+    if (!supportsUpsert()) {
+      List<ResourceCache<T>> result = new ArrayList<>();
+      for(ObjectNode node : nodes) {
+        result.add(upsert(map, node));
+      }
+      return result;
+    }
+
+    return saveAll(getStore().getPlan(map), nodes, true);
+  }
+
+  private <T extends Resource> ResourceCache<T> updateOrInsert(JDBCResourcePlan<T> plan, ObjectNode node) {
+    Key key = plan.getMap().getPrimaryKey(node);
+
+    boolean exists;
+    if (plan.hasUpdates(node)) {
+      String sql = plan.getUpdateSql(node);
+      PreparedStatement stmt;
+      try {
+        stmt = prepareStatement(sql);
+      } catch(SQLException e) {
+        throw new StoreException("Error while preparing sql - " + sql, e);
+      }
+
+      try {
+        long start = startTimer();
+        bindUpdate(plan, stmt, node);
+        int affectedRows = stmt.executeUpdate();
+        recordExecute(plan.getMap(), Operation.UPDATE, stmt, sql, start, affectedRows);
+        exists = affectedRows > 0;
+      } catch(SQLException e) {
+        throw new StoreException("Error while executing sql - " + sql, e);
+      } finally {
+        releaseStatement(sql, stmt);
       }
+    } else {
+      exists = fetchRecord(plan.getMap(), key) != null;
     }
+    invalidateOnCommit(plan.getMap(), key);
+
+    if (!exists) {
+      // The key is known, the generated keys are not needed
+      String sql = plan.getInsertSql();
+      PreparedStatement stmt;
+      try {
+        stmt = prepareInsert(sql, false);
+      } catch(SQLException e) {
+        throw new StoreException("Error while preparing " + sql, e);
+      }
 
-    int affectedRows = 0;
+      try {
+        long start = startTimer();
+        bindInsert(plan, stmt, node, true);
+        recordExecute(plan.getMap(), Operation.INSERT, stmt, sql, start, stmt.executeUpdate());
+      } catch(SQLException e) {
+        throw new StoreException("Error while executing " + sql, e);
+      } finally {
+        releaseStatement(sql, stmt);
+      }
+    }
+
+    saveRelations(plan, node);
+    return new ResourceCache(this, plan.getMap(), key, node);
+  }
+
+  @Override
+  public <T extends Resource> ResourceCache<T> insert(ResourceMap<T> map, ObjectNode node) throws StoreException {
+    JDBCResourcePlan<T> plan = getStore().getPlan(map);
+    boolean generated = generatesKey(plan, node);
+    String sql = generated ? plan.getGeneratedInsertSql() : plan.getInsertSql();
+
+    PreparedStatement stmt;
+    try {
+      stmt = prepareInsert(sql, generated);
+    } catch (SQLException e) {
+      throw new StoreException("Error while preparing " + sql, e);
+    }
+
+    // insert all the values
+    try {
+      return executeInsert(plan, stmt, sql, generated, node);
+    } finally {
+      releaseStatement(sql, stmt);
+    }
+  }
+
+  /**
+   * Checks if the key of the node is to be generated by the database, in
+   * which case the node is inserted without the key column and the key is
+   * read back from the generated keys.
+   */
+  private static boolean generatesKey(JDBCResourcePlan<?> plan, ObjectNode node) {
+    if (hasKey(plan, node)) {
+      return false;
+    } else if (plan.getGeneratedInsertSql() == null && plan.getKeyFieldsCount() > 0) {
+      throw new StoreException("The key of " + plan.getMap().getName() + " is required,"
+              + " only the single INT or LONG keys are generated by the database");
+    }
+    return plan.getGeneratedInsertSql() != null;
+  }
+
+  private PreparedStatement prepareInsert(String sql, boolean generated) throws SQLException {
+    return prepareStatement(sql, generated ? Statement.RETURN_GENERATED_KEYS : Statement.NO_GENERATED_KEYS);
+  }
+
+  /**
+   * Insert all the given nodes using JDBC batches of
+   * {@link StoreJDBC#getBatchSize()} records. The generated keys are set back
+   * on each of the nodes the same way as the single {@link #insert} does.
+   * The consecutive nodes with and without the keys are batched separately.
+   *
+   * On the drivers that cannot return the generated keys of a batch, the
+   * records with the generated keys are executed one by one on the same
+   * prepared statement.
+   *
+   * @return The ResourceCache for each of the nodes in the same order
+   */
+  public <T extends Resource> List<ResourceCache<T>> insertAll(ResourceMap<T> map, Iterable<ObjectNode> nodes)
+          throws StoreException {
+    JDBCResourcePlan<T> plan = getStore().getPlan(map);
+    int batchSize = getStore().getBatchSize();
+    boolean batchKeys = getStore().getDialect().supportsBatchGeneratedKeys();
+
+    List<ResourceCache<T>> result = new ArrayList<>();
+    List<ObjectNode> pending = new ArrayList<>();
+    String sql = null;
+    PreparedStatement stmt = null;
+    boolean generated = false;
+    try {
+      for(ObjectNode node : nodes) {
+        boolean nodeGenerated = generatesKey(plan, node);
+        if (stmt == null || nodeGenerated != generated) {
+          if (stmt != null) {
+            if (pending.size() > 0) {
+              executeInsertBatch(plan, stmt, sql, generated, pending, result);
+            }
+            releaseStatement(sql, stmt);
+            stmt = null;
+          }
+
+          generated = nodeGenerated;
+          sql = generated ? plan.getGeneratedInsertSql() : plan.getInsertSql();
+          try {
+            stmt = prepareInsert(sql, generated);
+          } catch (SQLException e) {
+            throw new StoreException("Error while preparing " + sql, e);
+          }
+        }
+
+        if (generated && !batchKeys) {
+          result.add(executeInsert(plan, stmt, sql, true, node));
+          continue;
+        }
+
+        bindInsert(plan, stmt, node, !generated);
+        try {
+          stmt.addBatch();
+        } catch(SQLException e) {
+          throw new StoreException("Error while adding batch for " + sql, e);
+        }
+
+        pending.add(node);
+        if (pending.size() >= batchSize) {
+          executeInsertBatch(plan, stmt, sql, generated, pending, result);
+        }
+      }
+
+      if (pending.size() > 0) {
+        executeInsertBatch(plan, stmt, sql, generated, pending, result);
+      }
+    } finally {
+      if (stmt != null) {
+        releaseStatement(sql, stmt);
+      }
+    }
+
+    return result;
+  }
+
+  private <T extends Resource> ResourceCache<T> executeInsert(JDBCResourcePlan<T> plan,
+                                                                PreparedStatement stmt, String sql,
+                                                                boolean generated, ObjectNode node) {
+    long start = startTimer();
+    bindInsert(plan, stmt, node, !generated);
+
+    int affectedRows;
     try {
       affectedRows = stmt.executeUpdate();
     } catch (SQLException e) {
+      throw new StoreException("Error while executing " + sql, e);
+    }
+
+    if (generated) {
+      if (affectedRows != 1) {
+        throw new StoreException("Could not retrieve the automatically generated id");
+      }
+
+      try (ResultSet keys = stmt.getGeneratedKeys()) {
+        if (keys.next()) {
+          readGeneratedKeys(plan, keys, node);
+        } else {
+          throw new StoreException("Generated Key not found while inserting new record for " + plan.getMap().getName());
+        }
+      } catch (SQLException e) {
+        throw new StoreException("Error while trying to retrieve generated keys", e);
+      }
+    }
+    recordExecute(plan.getMap(), Operation.INSERT, stmt, sql, start, affectedRows);
+
+    saveRelations(plan, node);
+    return new ResourceCache(this, plan.getMap(), null, node);
+  }
+
+  private <T extends Resource> void executeInsertBatch(JDBCResourcePlan<T> plan,
+                                                       PreparedStatement stmt, String sql,
+                                                       boolean generated,
+                                                       List<ObjectNode> pending,
+                                                       List<ResourceCache<T>> result) {
+    long start = startTimer();
+    try {
+      stmt.executeBatch();
+    } catch (SQLException e) {
+      throw new StoreException("Error while executing batch " + sql, e);
+    }
+
+    if (generated) {
+      try (ResultSet keys = stmt.getGeneratedKeys()) {
+        for(ObjectNode node : pending) {
+          if (!keys.next()) {
+            throw new StoreException("Generated Key not found while inserting batch for " + plan.getMap().getName());
+          }
+          readGeneratedKeys(plan, keys, node);
+        }
+      } catch (SQLException e) {
+        throw new StoreException("Error while trying to retrieve generated keys", e);
+      }
+    }
+    recordExecute(plan.getMap(), Operation.INSERT, stmt, sql, start, pending.size());
+
+    for(ObjectNode node : pending) {
+      saveRelations(plan, node);
+      result.add(new ResourceCache(this, plan.getMap(), null, node));
+    }
+    pending.clear();
+  }
+
+  /**
+   * Bind the values of the node to an insert (or upsert) statement
+   *
+   * @param withKey false for the statements without the key column, whose
+   *                value is generated by the database
+   */
+  private void bindInsert(JDBCResourcePlan<?> plan, PreparedStatement stmt, ObjectNode node, boolean withKey) {
+    int index = 0;
+    for (int i = 0; i < plan.getFieldsCount(); ++i) {
+      FieldMap fieldMap = plan.getField(i);
+      if (!withKey && fieldMap.isKey()) {
+        continue;
+      }
+      index += 1;
+
+      // Get the JsonNode first
+      JsonNode valueNode = node.get(fieldMap.getName());
+      Object fieldValue;
+      if (valueNode == null) {
+        // the value has not been provided, use the default value
+        fieldValue = fieldMap.getDefaultValue();
+      } else {
+        if (fieldMap.getType().isReference()) {
+          // A reference given as an object is saved along
+          fieldValue = referenceValue((ResourceMap) fieldMap.getType(), valueNode);
+        } else if (bindPrimitive(plan.getMapper(i), stmt, index, valueNode)) {
+          continue;
+        } else {
+          fieldValue = fieldMap.getType().fromJson(valueNode);
+        }
+      }
+
+      try {
+        bind(plan.getMapper(i), stmt, index, fieldValue);
+      } catch(SQLException e) {
+        throw new StoreException("Could not convert " + fieldValue + " for " + fieldMap.getFullName(), e);
+      }
+    }
+  }
+
+  /**
+   * Bind a json integer directly through the int and long mappers,
+   * which avoids boxing the value through DataType.fromJson.
+   *
+   * @return false if the value is not handled and needs to go through the
+   *         DataType
+   */
+  private boolean bindPrimitive(JDBCFieldMapper mapper, PreparedStatement stmt, int index, JsonNode valueNode) {
+    try {
+      if (mapper instanceof JDBCFieldMapper.LongMapper && valueNode.isIntegralNumber() && valueNode.canConvertToLong()) {
+        ((JDBCFieldMapper.LongMapper) mapper).setLong(stmt, index, valueNode.longValue());
+      } else if (mapper instanceof JDBCFieldMapper.IntMapper && valueNode.isIntegralNumber() && valueNode.canConvertToInt()) {
+        ((JDBCFieldMapper.IntMapper) mapper).setInt(stmt, index, valueNode.intValue());
+      } else {
+        return false;
+      }
+    } catch(SQLException e) {
+      throw new StoreException("Could not set parameter " + index + " with " + valueNode, e);
+    }
+
+    if (binds != null) {
+      // The value as bound, for the plan of a slow statement
+      binds.set(stmt, index, null, valueNode.isBoolean() ? valueNode.booleanValue() : valueNode.numberValue());
+    }
+    return true;
+  }
+
+  private void readGeneratedKeys(JDBCResourcePlan<?> plan, ResultSet keys, ObjectNode node) throws SQLException {
+    for(int i=0; i<plan.getKeyFieldsCount(); ++i) {
+      FieldMap keyField = plan.getKeyField(i);
+      Object keyValue = plan.getKeyMapper(i).getValue(keys, i + 1);
+      node.set(keyField.getName(), keyField.getType().toJSON(keyValue));
+    }
+  }
+
+  boolean isDirtyTracking() {
+    return snapshots != null;
+  }
+
+  /**
+   * Keep the column values of a record read by the session
+   *
+   * @param keyValues The values of the key fields in the order of the plan
+   * @param values The values of all the fields of the plan
+   */
+  void snapshot(ResourceMap<?> map, Object[] keyValues, Object[] values) {
+    JDBCRecordKey key = new JDBCRecordKey(map, keyValues);
+    if (snapshots.size() < MAX_SNAPSHOTS || snapshots.containsKey(key)) {
+      snapshots.put(key, values);
+    }
+  }
+
+  /**
+   * Update the record with the fields available in the node. With the dirty
+   * tracking, only the fields that differ from the record as it was read by
+   * the session are written, and nothing when all of them are the same.
+   * The records not read by the session, read by a scan of the whole map, or
+   * written since they were read, are updated with all the fields of the node.
+   */
+  @Override
+  public <T extends Resource> ResourceCache<T> update(ResourceMap<T> map, ObjectNode node) {
+    JDBCResourcePlan<T> plan = getStore().getPlan(map);
+    if (!plan.hasUpdates(node)) {
+      // Only the key is available, there is no column to be written
+      saveRelations(plan, node);
+      return new ResourceCache(this, map, map.getPrimaryKey(node), node);
+    }
+
+    if (snapshots != null) {
+      Object[] snapshot = snapshots.get(new JDBCRecordKey(map, map.getPrimaryKey(node)));
+      if (snapshot != null) {
+        return updateChanged(plan, node, snapshot);
+      }
+    }
+
+    String sql = plan.getUpdateSql(node);
+
+    PreparedStatement stmt;
+    try {
+      stmt = prepareStatement(sql);
+    } catch(SQLException e) {
+      throw new StoreException("Error while preparing sql - " + sql, e);
+    }
+
+    try {
+      long start = startTimer();
+      Key key = bindUpdate(plan, stmt, node);
+
+      try {
+        recordExecute(map, Operation.UPDATE, stmt, sql, start, stmt.executeUpdate());
+      } catch(SQLException e) {
+        throw new StoreException("Error while executing sql - " + sql, e);
+      }
+      invalidateOnCommit(map, key);
+
+      saveRelations(plan, node);
+      return new ResourceCache(this, map, key, node);
+
+    } finally {
+      releaseStatement(sql, stmt);
+    }
+  }
+
+  private <T extends Resource> ResourceCache<T> updateChanged(JDBCResourcePlan<T> plan, ObjectNode node,
+                                                              Object[] snapshot) {
+    ResourceMap<T> map = plan.getMap();
+    Key key = map.getPrimaryKey(node);
+    JDBCRecordKey recordKey = new JDBCRecordKey(map, key);
+
+    Object[] values = new Object[plan.getFieldsCount()];
+    for(int i=0; i<values.length; ++i) {
+      if (plan.isUpdated(i, node)) {
+        FieldMap fieldMap = plan.getField(i);
+        values[i] = fieldValue(fieldMap, node.get(fieldMap.getName()));
+      }
+    }
+
+    // The references saved on the way may have written the record itself
+    boolean known = snapshots.get(recordKey) == snapshot;
+    boolean[] changed = new boolean[values.length];
+    boolean anyChanged = false;
+    for(int i=0; i<values.length; ++i) {
+      if (plan.isUpdated(i, node)) {
+        changed[i] = !known || !Objects.equals(values[i], snapshot[i]);
+        anyChanged |= changed[i];
+      }
+    }
+
+    if (!anyChanged) {
+      saveRelations(plan, node);
+      return new ResourceCache(this, map, key, node);
+    }
+
+    String sql = plan.getUpdateSql(changed);
+    PreparedStatement stmt;
+    try {
+      stmt = prepareStatement(sql);
+    } catch(SQLException e) {
+      throw new StoreException("Error while preparing sql - " + sql, e);
+    }
+
+    try {
+      long start = startTimer();
+      int index = 0;
+      for(int i=0; i<values.length; ++i) {
+        if (changed[i]) {
+          bind(plan.getMapper(i), stmt, ++index, values[i]);
+        }
+      }
+      for(int i=0; i<key.getFieldCount(); ++i) {
+        bind(plan.getKeyMapper(i), stmt, ++index, key.getValue(i));
+      }
+      recordExecute(map, Operation.UPDATE, stmt, sql, start, stmt.executeUpdate());
+    } catch(SQLException e) {
       throw new StoreException("Error while executing sql - " + sql, e);
+    } finally {
+      releaseStatement(sql, stmt);
+    }
+    invalidateOnCommit(map, key);
+
+    for(int i=0; i<values.length; ++i) {
+      if (changed[i]) {
+        snapshot[i] = values[i];
+      }
+    }
+    if (known) {
+      snapshots.put(recordKey, snapshot);
+    }
+
+    saveRelations(plan, node);
+    return new ResourceCache(this, map, key, node);
+  }
+
+  /**
+   * Retrieve the value to be bound for a field of a node, the references
+   * given as objects being saved first
+   */
+  private Object fieldValue(FieldMap fieldMap, JsonNode valueNode) {
+    if (valueNode == null || valueNode.isNull()) {
+      return null;
+    } else if (fieldMap.getType().isReference()) {
+      return referenceValue((ResourceMap) fieldMap.getType(), valueNode);
+    } else {
+      return fieldMap.getType().fromJson(valueNode);
+    }
+  }
+
+  /**
+   * Update all the given nodes using JDBC batches of
+   * {@link StoreJDBC#getBatchSize()} records. The consecutive nodes with the
+   * same set of fields share a statement, a different shape flushes the
+   * pending batch so the updates are applied in the given order.
+   *
+   * @return The ResourceCache for each of the nodes in the same order
+   */
+  public <T extends Resource> List<ResourceCache<T>> updateAll(ResourceMap<T> map, Iterable<ObjectNode> nodes)
+          throws StoreException {
+    return saveAll(getStore().getPlan(map), nodes, false);
+  }
+
+  private <T extends Resource> List<ResourceCache<T>> saveAll(JDBCResourcePlan<T> plan, Iterable<ObjectNode> nodes,
+                                                              boolean upsert) {
+    ResourceMap<T> map = plan.getMap();
+    Operation operation = upsert ? Operation.UPSERT : Operation.UPDATE;
+    int batchSize = getStore().getBatchSize();
+
+    List<ResourceCache<T>> result = new ArrayList<>();
+    String sql = null;
+    PreparedStatement stmt = null;
+    int pending = 0;
+    try {
+      for(ObjectNode node : nodes) {
+        if (upsert && !hasKey(plan, node)) {
+          // Flush the pending records to keep the order
+          if (pending > 0) {
+            executeBatch(map, operation, stmt, sql, pending);
+            pending = 0;
+          }
+          result.add(insert(map, node));
+          continue;
+        }
+
+        if (!upsert && !plan.hasUpdates(node)) {
+          // Only the key is available, there is no column to be written
+          saveRelations(plan, node);
+          result.add(new ResourceCache(this, map, map.getPrimaryKey(node), node));
+          continue;
+        }
+
+        String nodeSql = upsert ? plan.getUpsertSql(node) : plan.getUpdateSql(node);
+        if (!nodeSql.equals(sql)) {
+          if (stmt != null) {
+            if (pending > 0) {
+              executeBatch(map, operation, stmt, sql, pending);
+              pending = 0;
+            }
+            releaseStatement(sql, stmt);
+            stmt = null;
+          }
+
+          sql = nodeSql;
+          try {
+            stmt = prepareStatement(sql);
+          } catch(SQLException e) {
+            throw new StoreException("Error while preparing sql - " + sql, e);
+          }
+        }
+
+        Key key;
+        if (upsert) {
+          bindInsert(plan, stmt, node, true);
+          key = map.getPrimaryKey(node);
+        } else {
+          key = bindUpdate(plan, stmt, node);
+        }
+        try {
+          stmt.addBatch();
+        } catch(SQLException e) {
+          throw new StoreException("Error while adding batch for " + sql, e);
+        }
+        invalidateOnCommit(map, key);
+        saveRelations(plan, node);
+        result.add(new ResourceCache(this, map, key, node));
+
+        pending += 1;
+        if (pending >= batchSize) {
+          executeBatch(map, operation, stmt, sql, pending);
+          pending = 0;
+        }
+      }
+
+      if (pending > 0) {
+        executeBatch(map, operation, stmt, sql, pending);
+      }
+    } finally {
+      if (stmt != null) {
+        releaseStatement(sql, stmt);
+      }
+    }
+
+    return result;
+  }
+
+  private void executeBatch(ResourceMap<?> map, Operation operation, PreparedStatement stmt, String sql, int rows) {
+    long start = startTimer();
+    try {
+      stmt.executeBatch();
+    } catch(SQLException e) {
+      throw new StoreException("Error while executing batch " + sql, e);
+    }
+    recordExecute(map, operation, stmt, sql, start, rows);
+  }
+
+  private Key bindUpdate(JDBCResourcePlan<?> plan, PreparedStatement stmt, ObjectNode node) {
+    Key key = plan.getMap().getPrimaryKey(node);
+
+    // fill up all the '?';
+    int valuesCount = 0;
+    for(int i=0; i<plan.getFieldsCount(); ++i) {
+      if (!plan.isUpdated(i, node)) {
+        continue;
+      }
+
+      FieldMap fieldMap = plan.getField(i);
+      JsonNode nodeValue = node.get(fieldMap.getName());
+      valuesCount += 1;
+
+      if (nodeValue == null || nodeValue.isNull()) {
+        try {
+          stmt.setObject(valuesCount, null);
+          logBind(stmt, valuesCount, null);
+        } catch(SQLException e) {
+          throw new StoreException("Could not set " + fieldMap.getFullName() + " with null", e);
+        }
+      } else {
+        Object fieldValue;
+        if (fieldMap.getType().isReference()) {
+          fieldValue = referenceValue((ResourceMap) fieldMap.getType(), nodeValue);
+        } else if (bindPrimitive(plan.getMapper(i), stmt, valuesCount, nodeValue)) {
+          continue;
+        } else {
+          fieldValue = fieldMap.getType().fromJson(nodeValue);
+        }
+
+        try {
+          bind(plan.getMapper(i), stmt, valuesCount, fieldValue);
+        } catch(SQLException e) {
+          throw new StoreException("Could not set " + fieldMap.getFullName() + " with " + fieldValue, e);
+        }
+
+      }
+    }
+
+    // Set the primary key value
+    for(int i=0; i<key.getFieldCount(); ++i) {
+      FieldMap keyField = key.getField(i);
+      try {
+        bind(plan.getKeyMapper(i), stmt, valuesCount + i + 1, key.getValue(i));
+      } catch(SQLException e) {
+        throw new StoreException("Could not set primary key value for " + keyField.getFullName() + " with " + key.getValue(i), e);
+      }
+    }
+
+    return key;
+  }
+
+  /**
+   * Remove the children of a record being deleted from the join tables, so
+   * a later record reusing the key does not inherit them
+   */
+  private void deleteRelations(JDBCResourcePlan<?> plan, Key key) {
+    if (plan.getKeyFieldsCount() != 1) {
+      // The relations are supported only for the single field keys
+      return;
+    }
+
+    ResourceMap<?> map = plan.getMap();
+    for(int i=0; i<map.getFieldsCount(); ++i) {
+      FieldMap fieldMap = map.getFieldMap(i);
+      if (!fieldMap.getType().isMany() || fieldMap.isTransient()) {
+        continue;
+      }
+
+      String sql = JDBCRelation.getDeleteSql(getStore(), map, fieldMap);
+      PreparedStatement stmt = null;
+      try {
+        stmt = prepareStatement(sql);
+        long start = startTimer();
+        bind(plan.getKeyMapper(0), stmt, 1, key.getValue(0));
+        recordExecute(map, Operation.SAVE_MANY, stmt, sql, start, stmt.executeUpdate());
+      } catch(SQLException e) {
+        throw new StoreException("Error while executing sql - " + sql, e);
+      } finally {
+        if (stmt != null) {
+          releaseStatement(sql, stmt);
+        }
+      }
+    }
+  }
+
+  /**
+   * Replace the join table records of all the Many relations provided in the
+   * node. The relations not available in the node are left untouched. The
+   * children are given either as ids or as objects, which are saved as well.
+   */
+  private void saveRelations(JDBCResourcePlan<?> plan, ObjectNode node) {
+    JDBCRelation[] relations = getStore().getRelations(plan.getMap());
+    if (relations == null) {
+      // The children cannot be saved without knowing their type
+      ResourceMap<?> map = plan.getMap();
+      for(int i=0; i<map.getFieldsCount(); ++i) {
+        FieldMap fieldMap = map.getFieldMap(i);
+        if (fieldMap.getType().isMany() && !fieldMap.isTransient() && node.has(fieldMap.getName())) {
+          throw new StoreException("The relation " + fieldMap.getFullName() + " has not been registered,"
+                  + " see StoreJDBC.registerResources");
+        }
+      }
+      return;
+    }
+
+    for(JDBCRelation relation : relations) {
+      JsonNode value = node.get(relation.getField().getName());
+      if (value == null) {
+        continue;
+      }
+
+      FieldMap parentKey = plan.getKeyField(0);
+      Object parentId = parentKey.getType().fromJson(node.get(parentKey.getName()));
+      JDBCFieldMapper parentMapper = plan.getKeyMapper(0);
+
+      // Resolve the children first, which might need their own inserts
+      JDBCResourcePlan<?> child = relation.getChild();
+      Object[] childIds = new Object[value.isArray() ? value.size() : 0];
+      for(int i=0; i<childIds.length; ++i) {
+        childIds[i] = relationId(child, value.get(i));
+      }
+
+      String sql = relation.getDeleteSql();
+      PreparedStatement stmt = null;
+      try {
+        stmt = prepareStatement(sql);
+        long start = startTimer();
+        bind(parentMapper, stmt, 1, parentId);
+        recordExecute(plan.getMap(), Operation.SAVE_MANY, stmt, sql, start, stmt.executeUpdate());
+      } catch(SQLException e) {
+        throw new StoreException("Error while executing sql - " + sql, e);
+      } finally {
+        if (stmt != null) {
+          releaseStatement(sql, stmt);
+        }
+      }
+
+      if (childIds.length == 0) {
+        continue;
+      }
+
+      sql = relation.getInsertSql();
+      stmt = null;
+      try {
+        stmt = prepareStatement(sql);
+        long start = startTimer();
+        for(int i=0; i<childIds.length; ++i) {
+          bind(parentMapper, stmt, 1, parentId);
+          bind(child.getKeyMapper(0), stmt, 2, childIds[i]);
+          stmt.setInt(3, i);
+          logBind(stmt, 3, i);
+          stmt.addBatch();
+        }
+        stmt.executeBatch();
+        recordExecute(plan.getMap(), Operation.SAVE_MANY, stmt, sql, start, childIds.length);
+      } catch(SQLException e) {
+        throw new StoreException("Error while executing batch " + sql, e);
+      } finally {
+        if (stmt != null) {
+          releaseStatement(sql, stmt);
+        }
+      }
+    }
+  }
+
+  /**
+   * Retrieve the id of a child of a relation, saving it first if it has been
+   * provided as an object.
+   */
+  private Object relationId(JDBCResourcePlan<?> plan, JsonNode valueNode) {
+    FieldMap keyField = plan.getKeyField(0);
+    if (valueNode.isObject()) {
+      ObjectNode childNode = (ObjectNode) valueNode;
+      upsert(plan.getMap(), childNode);
+      valueNode = childNode.get(keyField.getName());
+    }
+    return keyField.getType().fromJson(valueNode);
+  }
+
+  /**
+   * Load the Many relations of all the given parents, typically the records
+   * of a fetchAll or a page. Each relation is loaded with a single query for
+   * all the parents (a single = ANY(?) where the store supports arrays, or
+   * chunks of IN lists), instead of a query per parent, and the Many fields
+   * of the parents are set in a single pass afterwards.
+   */
+  public <T extends Resource> void loadMany(ResourceMap<T> map, Collection<T> parents) throws StoreException {
+    if (parents.isEmpty()) {
+      return;
+    }
+
+    JDBCRelation[] relations = getStore().registerRelations(map, parents.iterator().next().getClass());
+    for(JDBCRelation relation : relations) {
+      loadRelation(relation, parents);
+    }
+  }
+
+  private <T extends Resource> void loadRelation(JDBCRelation relation, Collection<T> parents) {
+    JDBCResourcePlan<?> parent = relation.getParent();
+    JDBCResourcePlan<?> child = relation.getChild();
+    JDBCFieldMapper parentMapper = parent.getKeyMapper(0);
+    FieldMap childKey = child.getKeyField(0);
+
+    Set<Object> idSet = new LinkedHashSet<>();
+    for(T res : parents) {
+      if (res.getId() != null) {
+        idSet.add(res.getId());
+      }
+    }
+    List<Object> ids = new ArrayList<>(idSet);
+
+    // The ids of the children for each of the parents, in their position order
+    Map<Object, ArrayNode> children = new HashMap<>();
+
+    String arrayType = getStore().getDialect().getArrayTypeName(parent.getKeyField(0).getType());
+    int chunk = arrayType != null ? Math.max(1, ids.size()) : parent.getMaxFetchManyKeys();
+    for(int from=0; from<ids.size(); from+=chunk) {
+      int count = Math.min(chunk, ids.size() - from);
+      String sql;
+      PreparedStatement stmt;
+      ResultSet rs;
+      Array array = null;
+      long start;
+      try {
+        if (arrayType != null) {
+          sql = relation.getLoadAnySql();
+          array = connection.createArrayOf(arrayType, ids.toArray());
+          stmt = prepareStatement(sql);
+          start = startTimer();
+          stmt.setArray(1, array);
+          logBind(stmt, 1, array);
+        } else {
+          sql = relation.getLoadSql(count);
+          stmt = prepareStatement(sql);
+          start = startTimer();
+          int size = parent.getFetchManySize(count);
+          for(int i=0; i<size; ++i) {
+            // pad the extra parameters with the last id
+            bind(parentMapper, stmt, i + 1, ids.get(from + Math.min(i, count - 1)));
+          }
+        }
+        rs = stmt.executeQuery();
+        recordExecute(parent.getMap(), Operation.LOAD_MANY, stmt, sql, start, 0);
+      } catch(SQLException e) {
+        throw new StoreException("Error while loading relation " + relation.getField().getFullName(), e);
+      }
+
+      JDBCRecordSet<?> recordSet = new JDBCRecordSet<>(this, stmt, sql, child.getMap(), rs);
+      int parentColumn = recordSet.findColumn(JDBCRelation.PARENT_ALIAS);
+      while(recordSet.hasNext()) {
+        recordSet.next();
+        Object parentId = recordSet.getValue(parentColumn, parentMapper);
+        ArrayNode childIds = children.get(parentId);
+        if (childIds == null) {
+          childIds = JsonNodeFactory.instance.arrayNode();
+          children.put(parentId, childIds);
+        }
+        childIds.add(childKey.getType().toJSON(recordSet.getLastId()));
+      }
+
+      if (array != null) {
+        try {
+          array.free();
+        } catch(SQLException e) {
+          Store.LOGGER.warn("Error while freeing array parameter of " + sql);
+        }
+      }
+    }
+
+    // The Many value is built by its type from the child ids, which resolves
+    // the children through map.find, i.e. the instances just loaded above
+    FieldMap field = relation.getField();
+    for(T res : parents) {
+      ArrayNode childIds = children.get(res.getId());
+      if (childIds == null) {
+        childIds = JsonNodeFactory.instance.arrayNode();
+      }
+      field.set(res, field.getType().fromJson(childIds));
+    }
+  }
+
+  @Override
+  public <T extends Resource> ResourceCache<T> delete(ResourceMap<T> map, Key key)
+          throws StoreException {
+    JDBCResourcePlan<T> plan = getStore().getPlan(map);
+    deleteRelations(plan, key);
+    String sql = plan.getDeleteSql();
+
+    PreparedStatement stmt;
+    try {
+      stmt = prepareStatement(sql);
+    } catch (SQLException e) {
+      throw new StoreException("Error while preparing sql - " + sql, e);
+    }
+
+    int affectedRows;
+    try {
+      long start = startTimer();
+      for(int i=0; i<key.getFieldCount(); ++i) {
+        FieldMap keyField = key.getField(i);
+        try {
+          bind(plan.getKeyMapper(i), stmt, i+1, key.getValue(i));
+        } catch (SQLException e) {
+          throw new StoreException("Could not set primary key value for " + keyField.getFullName() + " with " + key.getValue(i));
+        }
+      }
+
+      try {
+        affectedRows = stmt.executeUpdate();
+      } catch (SQLException e) {
+        throw new StoreException("Error while executing sql - " + sql, e);
+      }
+      recordExecute(map, Operation.DELETE, stmt, sql, start, affectedRows);
+    } finally {
+      releaseStatement(sql, stmt);
     }
 
+    invalidateOnCommit(map, key);
     if (affectedRows != 1) {
       throw new StoreException("Delete failed. " + affectedRows + " records deleted from " + map.getName() + " while trying to delete " + key);
     }
@@ -0,0 +1,27 @@
+package com.sharingapples.sync.store.jdbc;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Declares a secondary index on the column of a resource field, created
+ * along with the table by {@link EngineJDBC#createTable(Class)} or later on
+ * by {@link EngineJDBC#ensureIndexes(Class)}. The fields sharing the same
+ * index name make up a single composite index, with the columns in the
+ * order of the fields of the resource.
+ *
+ * The columns of the references are always indexed and do not need to be
+ * annotated.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface Indexed {
+  /**
+   * The name of the index within the table, the name of the field by default
+   */
+  String name() default "";
+
+  boolean unique() default false;
+}
@@ -0,0 +1,135 @@
+package com.sharingapples.sync.store.jdbc;
+
+import com.sharingapples.sync.store.StoreException;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Runs the sessions of {@link StoreJDBC#executeAsync(JDBCSession)} with at
+ * most as many sessions at a time as the connections of the pool, so they
+ * never wait on the pool for a connection. The sessions beyond are queued up
+ * to a limit, past which they are rejected right away (the future failing
+ * with a StoreException) instead of piling up.
+ *
+ * The sessions run on virtual threads when the JVM supports them (Java 21
+ * onwards), and on a pool of daemon threads otherwise.
+ */
+class JDBCAsyncExecutor {
+  private final ExecutorService executor;
+  private final int maxPending;
+  private final int capacity;
+
+  // The sessions admitted, running or queued
+  private final Semaphore admitted;
+
+  // The sessions running, only for the virtual threads which are not pooled
+  private final Semaphore running;
+
+  JDBCAsyncExecutor(int concurrency, int maxPending) {
+    this(concurrency, maxPending, newVirtualThreadExecutor());
+  }
+
+  /**
+   * @param virtual The executor of the virtual threads, or null for a pool
+   *                of daemon threads
+   */
+  JDBCAsyncExecutor(int concurrency, int maxPending, ExecutorService virtual) {
+    this.maxPending = maxPending;
+    this.capacity = concurrency + maxPending;
+    this.admitted = new Semaphore(capacity);
+
+    if (virtual != null) {
+      this.executor = virtual;
+      this.running = new Semaphore(concurrency, true);
+    } else {
+      ThreadPoolExecutor pool = new ThreadPoolExecutor(concurrency, concurrency, 60, TimeUnit.SECONDS,
+              new LinkedBlockingQueue<>(), new DaemonThreadFactory());
+      pool.allowCoreThreadTimeOut(true);
+      this.executor = pool;
+      this.running = null;
+    }
+  }
+
+  static ExecutorService newVirtualThreadExecutor() {
+    try {
+      return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    } catch(ReflectiveOperationException | RuntimeException e) {
+      // Not available before Java 21
+      return null;
+    }
+  }
+
+  /**
+   * @return The number of sessions admitted, running or queued
+   */
+  int getAdmitted() {
+    return capacity - admitted.availablePermits();
+  }
+
+  <R> CompletableFuture<R> submit(Supplier<R> task) {
+    CompletableFuture<R> future = new CompletableFuture<>();
+    if (!admitted.tryAcquire()) {
+      future.completeExceptionally(new StoreException("Too many sessions pending, the limit is " + maxPending));
+      return future;
+    }
+
+    try {
+      executor.execute(() -> run(task, future));
+    } catch(RejectedExecutionException e) {
+      admitted.release();
+      future.completeExceptionally(new StoreException("The asynchronous execution has been shut down", e));
+    }
+    return future;
+  }
+
+  private <R> void run(Supplier<R> task, CompletableFuture<R> future) {
+    try {
+      if (running != null) {
+        running.acquire();
+      }
+      try {
+        future.complete(task.get());
+      } finally {
+        if (running != null) {
+          running.release();
+        }
+      }
+    } catch(InterruptedException e) {
+      Thread.currentThread().interrupt();
+      future.completeExceptionally(new StoreException("Interrupted while waiting to execute the session", e));
+    } catch(Throwable e) {
+      future.completeExceptionally(e);
+    } finally {
+      admitted.release();
+    }
+  }
+
+  /**
+   * Reject the new sessions and wait for the admitted ones to complete
+   */
+  void shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+    executor.shutdown();
+    executor.awaitTermination(timeout, unit);
+  }
+
+  private static class DaemonThreadFactory implements ThreadFactory {
+    private final AtomicInteger count = new AtomicInteger();
+
+    @Override
+    public Thread newThread(Runnable r) {
+      Thread thread = new Thread(r, "store-jdbc-async-" + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+}
@@ -0,0 +1,98 @@
+package com.sharingapples.sync.store.jdbc;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The values bound to the statements of an engine, kept for the slow
+ * statement log. The values are kept per statement till it is released, so
+ * the statements executed while another one is being bound (the references
+ * saved along with a record) do not affect each other. For a batch, the
+ * values of its last record are kept.
+ */
+class JDBCBindLog {
+  private static final int MAX_VALUE_LENGTH = 100;
+
+  private static class Binds {
+    private final List<JDBCFieldMapper> mappers = new ArrayList<>();
+    private final List<Object> values = new ArrayList<>();
+  }
+
+  private final Map<PreparedStatement, Binds> statements = new IdentityHashMap<>();
+
+  /**
+   * Record the value bound at the given index, through the given mapper or
+   * with setObject when the mapper is null
+   */
+  void set(PreparedStatement statement, int index, JDBCFieldMapper mapper, Object value) {
+    Binds binds = statements.get(statement);
+    if (binds == null) {
+      binds = new Binds();
+      statements.put(statement, binds);
+    }
+
+    while(binds.values.size() < index) {
+      binds.mappers.add(null);
+      binds.values.add(null);
+    }
+    binds.mappers.set(index - 1, mapper);
+    binds.values.set(index - 1, value);
+  }
+
+  boolean isBound(PreparedStatement statement) {
+    return statements.containsKey(statement);
+  }
+
+  /**
+   * Forget the values of a statement given back to the cache
+   */
+  void release(PreparedStatement statement) {
+    statements.remove(statement);
+  }
+
+  /**
+   * Bind the values recorded for a statement to another statement with the
+   * same parameters
+   */
+  @SuppressWarnings("unchecked")
+  void bind(PreparedStatement statement, PreparedStatement target) throws SQLException {
+    Binds binds = statements.get(statement);
+    for(int i=0; i<binds.values.size(); ++i) {
+      JDBCFieldMapper mapper = binds.mappers.get(i);
+      if (mapper == null) {
+        target.setObject(i + 1, binds.values.get(i));
+      } else {
+        mapper.setValue(target, i + 1, binds.values.get(i));
+      }
+    }
+  }
+
+  /**
+   * Format the values recorded for a statement
+   */
+  String format(PreparedStatement statement) {
+    Binds binds = statements.get(statement);
+    StringBuilder res = new StringBuilder("[");
+    for(int i=0; i<binds.values.size(); ++i) {
+      if (i > 0) {
+        res.append(", ");
+      }
+
+      Object value = binds.values.get(i);
+      if (value instanceof CharSequence) {
+        String text = value.toString();
+        if (text.length() > MAX_VALUE_LENGTH) {
+          text = text.substring(0, MAX_VALUE_LENGTH) + "...";
+        }
+        res.append('\'').append(text).append('\'');
+      } else {
+        res.append(value);
+      }
+    }
+    return res.append(']').toString();
+  }
+}
@@ -0,0 +1,48 @@
+package com.sharingapples.sync.store.jdbc;
+
+/**
+ * A snapshot of the statistics of the resource cache of a StoreJDBC, see
+ * {@link StoreJDBC#enableResourceCache}
+ */
+public class JDBCCacheStats {
+  private final long hits;
+  private final long misses;
+  private final long evictions;
+  private final int size;
+
+  JDBCCacheStats(long hits, long misses, long evictions, int size) {
+    this.hits = hits;
+    this.misses = misses;
+    this.evictions = evictions;
+    this.size = size;
+  }
+
+  public long getHits() {
+    return hits;
+  }
+
+  public long getMisses() {
+    return misses;
+  }
+
+  /**
+   * @return The ratio of the fetches served from the cache, 0 when nothing
+   *         has been fetched yet
+   */
+  public double getHitRate() {
+    long total = hits + misses;
+    return total == 0 ? 0 : (double) hits / total;
+  }
+
+  /**
+   * @return The number of records removed to keep the cache within its
+   *         maximum size
+   */
+  public long getEvictions() {
+    return evictions;
+  }
+
+  public int getSize() {
+    return size;
+  }
+}
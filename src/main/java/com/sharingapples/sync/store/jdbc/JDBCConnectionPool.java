@@ -0,0 +1,37 @@
+package com.sharingapples.sync.store.jdbc;
+
+import org.apache.commons.dbcp2.PoolableConnection;
+import org.apache.commons.dbcp2.PoolingDataSource;
+import org.apache.commons.pool2.impl.GenericObjectPool;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * A DBCP2 connection pool of a StoreJDBC along with its metrics
+ */
+class JDBCConnectionPool {
+  private final PoolingDataSource<PoolableConnection> dataSource;
+  private final LatencyHistogram borrowLatency = new LatencyHistogram();
+  private final JDBCPoolMetrics metrics;
+
+  JDBCConnectionPool(GenericObjectPool<PoolableConnection> pool) {
+    this.dataSource = new PoolingDataSource<>(pool);
+    // The statement cache is attached to the physical connection
+    this.dataSource.setAccessToUnderlyingConnectionAllowed(true);
+    this.metrics = new JDBCPoolMetrics(pool, borrowLatency);
+  }
+
+  Connection getConnection() throws SQLException {
+    long start = System.nanoTime();
+    try {
+      return dataSource.getConnection();
+    } finally {
+      borrowLatency.record(System.nanoTime() - start);
+    }
+  }
+
+  JDBCPoolMetrics getMetrics() {
+    return metrics;
+  }
+}
@@ -0,0 +1,100 @@
+package com.sharingapples.sync.store.jdbc;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+
+/**
+ * Encodes the rows of a bulk load in the CSV format into a bounded buffer,
+ * which is handed over to a {@link Sink} whenever it fills up. The rows are
+ * never accumulated beyond the buffer, so a load of any size uses the same
+ * amount of memory.
+ *
+ * A NULL is written as an unquoted empty value and every non null value is
+ * quoted, so an empty string stays distinct from NULL.
+ */
+class JDBCCopyWriter {
+
+  /**
+   * The destination of the encoded data, typically the CopyIn of the driver
+   */
+  interface Sink {
+    void write(byte[] buffer, int offset, int length) throws SQLException;
+  }
+
+  private final Sink sink;
+  private final byte[] buffer;
+  private int position;
+
+  private final StringBuilder row = new StringBuilder();
+  private long rows;
+
+  JDBCCopyWriter(Sink sink, int bufferSize) {
+    if (bufferSize <= 0) {
+      throw new IllegalArgumentException("Buffer size must be positive");
+    }
+    this.sink = sink;
+    this.buffer = new byte[bufferSize];
+  }
+
+  /**
+   * Encode a row of values using the given mappers
+   */
+  @SuppressWarnings("unchecked")
+  void writeRow(JDBCFieldMapper[] mappers, Object[] values) throws SQLException {
+    row.setLength(0);
+    for(int i=0; i<values.length; ++i) {
+      if (i > 0) {
+        row.append(',');
+      }
+
+      Object value = values[i];
+      if (value != null) {
+        quote(mappers[i].toText(value));
+      }
+    }
+    row.append('\n');
+
+    write(row.toString().getBytes(StandardCharsets.UTF_8));
+    rows += 1;
+  }
+
+  private void quote(String text) {
+    row.append('"');
+    for(int i=0; i<text.length(); ++i) {
+      char ch = text.charAt(i);
+      if (ch == '"') {
+        row.append('"');
+      }
+      row.append(ch);
+    }
+    row.append('"');
+  }
+
+  private void write(byte[] bytes) throws SQLException {
+    if (position + bytes.length > buffer.length) {
+      flush();
+    }
+
+    if (bytes.length > buffer.length) {
+      // A row larger than the buffer goes straight through
+      sink.write(bytes, 0, bytes.length);
+    } else {
+      System.arraycopy(bytes, 0, buffer, position, bytes.length);
+      position += bytes.length;
+    }
+  }
+
+  /**
+   * Hand over the buffered rows to the sink
+   */
+  void flush() throws SQLException {
+    if (position > 0) {
+      sink.write(buffer, 0, position);
+      position = 0;
+    }
+  }
+
+  long getRows() {
+    return rows;
+  }
+}
@@ -37,7 +37,42 @@ interface JDBCFieldMapper<T> {
    */
   T getValue(ResultSet resultSet, int index) throws SQLException;
 
-  JDBCFieldMapper<Integer> INT = new JDBCFieldMapper<Integer>() {
+  /**
+   * @return The java type of the values handled by the mapper
+   */
+  Class<T> getValueType();
+
+  /**
+   * Convert a non null value into its text literal, as used by the text and
+   * csv formats of the bulk loads. The ISO formats of the java.time values
+   * and the java number and boolean formats are understood by the databases.
+   */
+  default String toText(T value) {
+    return value.toString();
+  }
+
+  /**
+   * A mapper for the int columns that reads and writes without boxing. A NULL
+   * read with getInt is returned as 0, check the ResultSet.wasNull for it.
+   */
+  interface IntMapper extends JDBCFieldMapper<Integer> {
+    int getInt(ResultSet resultSet, int index) throws SQLException;
+
+    void setInt(PreparedStatement statement, int index, int value) throws SQLException;
+  }
+
+  /**
+   * A mapper for the long columns that reads and writes without boxing. A
+   * NULL read with getLong is returned as 0, check the ResultSet.wasNull for
+   * it.
+   */
+  interface LongMapper extends JDBCFieldMapper<Long> {
+    long getLong(ResultSet resultSet, int index) throws SQLException;
+
+    void setLong(PreparedStatement statement, int index, long value) throws SQLException;
+  }
+
+  IntMapper INT = new IntMapper() {
     @Override
     public void setValue(PreparedStatement statement, int index, Integer value) throws SQLException {
       if (value == null) {
@@ -52,6 +87,53 @@ interface JDBCFieldMapper<T> {
       int v = resultSet.getInt(index);
       return resultSet.wasNull() ? null : v;
     }
+
+    @Override
+    public int getInt(ResultSet resultSet, int index) throws SQLException {
+      return resultSet.getInt(index);
+    }
+
+    @Override
+    public void setInt(PreparedStatement statement, int index, int value) throws SQLException {
+      statement.setInt(index, value);
+    }
+
+    @Override
+    public Class<Integer> getValueType() {
+      return Integer.class;
+    }
+  };
+
+  LongMapper LONG = new LongMapper() {
+    @Override
+    public void setValue(PreparedStatement statement, int index, Long value) throws SQLException {
+      if (value == null) {
+        statement.setNull(index, Types.BIGINT);
+      } else {
+        statement.setLong(index, value);
+      }
+    }
+
+    @Override
+    public Long getValue(ResultSet resultSet, int index) throws SQLException {
+      long v = resultSet.getLong(index);
+      return resultSet.wasNull() ? null : v;
+    }
+
+    @Override
+    public long getLong(ResultSet resultSet, int index) throws SQLException {
+      return resultSet.getLong(index);
+    }
+
+    @Override
+    public void setLong(PreparedStatement statement, int index, long value) throws SQLException {
+      statement.setLong(index, value);
+    }
+
+    @Override
+    public Class<Long> getValueType() {
+      return Long.class;
+    }
   };
 
   JDBCFieldMapper<String> STRING = new JDBCFieldMapper<String>() {
@@ -68,6 +150,11 @@ interface JDBCFieldMapper<T> {
     public String getValue(ResultSet resultSet, int index) throws SQLException {
       return resultSet.getString(index);
     }
+
+    @Override
+    public Class<String> getValueType() {
+      return String.class;
+    }
   };
 
   JDBCFieldMapper<LocalDate> DATE = new JDBCFieldMapper<LocalDate>() {
@@ -89,6 +176,11 @@ interface JDBCFieldMapper<T> {
         return Instant.ofEpochMilli(date.getTime()).atZone(StoreJDBC.SYSTEM_TZ).toLocalDate();
       }
     }
+
+    @Override
+    public Class<LocalDate> getValueType() {
+      return LocalDate.class;
+    }
   };
 
   JDBCFieldMapper<LocalTime> TIME = new JDBCFieldMapper<LocalTime>() {
@@ -110,6 +202,11 @@ interface JDBCFieldMapper<T> {
         return Instant.ofEpochMilli(time.getTime()).atZone(StoreJDBC.SYSTEM_TZ).toLocalTime();
       }
     }
+
+    @Override
+    public Class<LocalTime> getValueType() {
+      return LocalTime.class;
+    }
   };
 
   JDBCFieldMapper<LocalDateTime> DATETIME = new JDBCFieldMapper<LocalDateTime>() {
@@ -131,5 +228,10 @@ interface JDBCFieldMapper<T> {
         return Instant.ofEpochMilli(timestamp.getTime()).atZone(StoreJDBC.SYSTEM_TZ).toLocalDateTime();
       }
     }
+
+    @Override
+    public Class<LocalDateTime> getValueType() {
+      return LocalDateTime.class;
+    }
   };
 }
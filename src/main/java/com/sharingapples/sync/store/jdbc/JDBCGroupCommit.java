@@ -0,0 +1,204 @@
+package com.sharingapples.sync.store.jdbc;
+
+import com.sharingapples.sync.store.Store;
+import com.sharingapples.sync.store.StoreException;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Coalesces the commits of the concurrent write sessions into a single
+ * transaction. All the sessions run one after the other on a shared
+ * connection, each within its own savepoint. A committing session releases
+ * its savepoint, joins the pending group and waits, while the next session
+ * goes on with the connection. A writer thread commits the group once per
+ * latency window, completing all the sessions of the group with a single
+ * commit (and a single fsync).
+ *
+ * A failing session is rolled back to its savepoint without affecting the
+ * others, while a failing commit fails all the sessions of the group.
+ */
+class JDBCGroupCommit implements Runnable {
+  private final Connection connection;
+  private final long windowNanos;
+
+  // Held by a session from its start till its commit or rollback, and by the
+  // writer thread while committing
+  private final ReentrantLock lock = new ReentrantLock(true);
+
+  private final Thread writer;
+  private volatile boolean running = true;
+
+  // The sessions waiting for the next commit, guarded by this
+  private CompletableFuture<Void> pending;
+
+  JDBCGroupCommit(Connection connection, long window, TimeUnit unit) {
+    this.connection = connection;
+    this.windowNanos = unit.toNanos(window);
+    this.writer = new Thread(this, "store-jdbc-group-commit");
+    this.writer.setDaemon(true);
+  }
+
+  Connection getConnection() {
+    return connection;
+  }
+
+  void start() {
+    writer.start();
+  }
+
+  /**
+   * Start a session, waiting for the previous session to commit or rollback
+   */
+  Savepoint begin() {
+    lock.lock();
+    try {
+      if (!running) {
+        throw new StoreException("Group commit has been stopped");
+      }
+      return connection.setSavepoint();
+    } catch(SQLException | RuntimeException e) {
+      lock.unlock();
+      throw e instanceof StoreException ? (StoreException) e
+              : new StoreException("Could not start the session", e);
+    }
+  }
+
+  /**
+   * Commit the session, returns only after the group containing the session
+   * has been committed. A session nested within another session of the same
+   * thread is committed along with the outer session.
+   */
+  void commit(Savepoint savepoint) {
+    try {
+      connection.releaseSavepoint(savepoint);
+    } catch(SQLException e) {
+      rollback(savepoint);
+      throw new StoreException("Error while committing session", e);
+    }
+
+    CompletableFuture<Void> group;
+    try {
+      if (lock.getHoldCount() > 1) {
+        return;
+      }
+
+      group = join();
+      if (group == null) {
+        // The writer has been stopped, commit right away
+        connection.commit();
+        return;
+      }
+    } catch(SQLException e) {
+      throw new StoreException("Error while committing session", e);
+    } finally {
+      lock.unlock();
+    }
+
+    try {
+      group.get();
+    } catch(InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new StoreException("Interrupted while waiting for the group commit", e);
+    } catch(ExecutionException e) {
+      throw new StoreException("Error while committing session", e.getCause());
+    }
+  }
+
+  /**
+   * Discard the changes of the session
+   */
+  void rollback(Savepoint savepoint) {
+    try {
+      connection.rollback(savepoint);
+    } catch(SQLException e) {
+      throw new StoreException("Error while rolling back session", e);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private synchronized CompletableFuture<Void> join() {
+    if (!running) {
+      return null;
+    } else if (pending == null) {
+      pending = new CompletableFuture<>();
+      notifyAll();
+    }
+    return pending;
+  }
+
+  private synchronized boolean awaitPending() throws InterruptedException {
+    while(pending == null && running) {
+      wait();
+    }
+    return pending != null;
+  }
+
+  @Override
+  public void run() {
+    try {
+      while(awaitPending()) {
+        if (running) {
+          // Let the other sessions join the group
+          LockSupport.parkNanos(windowNanos);
+        }
+
+        lock.lock();
+        try {
+          CompletableFuture<Void> group;
+          synchronized (this) {
+            group = pending;
+            pending = null;
+          }
+
+          try {
+            connection.commit();
+            group.complete(null);
+          } catch(SQLException e) {
+            Store.LOGGER.warn("Group commit failed - " + e.getMessage());
+            group.completeExceptionally(e);
+          }
+        } finally {
+          lock.unlock();
+        }
+      }
+    } catch(InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Stop the writer thread once the pending group has been committed, and
+   * close the connection once the sessions in progress are over.
+   */
+  void stop() {
+    synchronized (this) {
+      running = false;
+      notifyAll();
+    }
+    // Commit the pending group without waiting for the end of the window
+    LockSupport.unpark(writer);
+
+    try {
+      writer.join();
+    } catch(InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+
+    lock.lock();
+    try {
+      connection.close();
+    } catch(SQLException e) {
+      Store.LOGGER.warn("Error while closing group commit connection - " + e.getMessage());
+    } finally {
+      lock.unlock();
+    }
+  }
+}
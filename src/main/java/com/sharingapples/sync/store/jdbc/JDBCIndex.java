@@ -0,0 +1,96 @@
+package com.sharingapples.sync.store.jdbc;
+
+import com.sharingapples.sync.resource.FieldMap;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An index of a table, as created by {@link EngineJDBC#ensureIndexes(Class)}.
+ * The indexes of a resource are the ones of its reference columns (used by
+ * the joins and the lookups of the referencing records), the ones declared
+ * with {@link Indexed} and the ones of the join tables of its Many relations.
+ */
+class JDBCIndex {
+  private final String name;
+  private final String tableName;
+  private final List<String> columnNames = new ArrayList<>();
+  private final boolean unique;
+
+  /**
+   * @param name The unquoted name of the index
+   * @param tableName The quoted name of the table
+   */
+  JDBCIndex(String name, String tableName, boolean unique) {
+    this.name = name;
+    this.tableName = tableName;
+    this.unique = unique;
+  }
+
+  JDBCIndex addColumn(String columnName) {
+    columnNames.add(columnName);
+    return this;
+  }
+
+  String getName() {
+    return name;
+  }
+
+  String getCreateSql(StoreJDBC store) {
+    return store.getDialect().getCreateIndexSql(store.quoteSystemIdentifier(name), tableName,
+            columnNames.toArray(new String[columnNames.size()]), unique);
+  }
+
+  /**
+   * Collect the indexes of the table of the given plan and of the join tables
+   * of its relations
+   */
+  static List<JDBCIndex> resolve(StoreJDBC store, JDBCResourcePlan<?> plan, Class<?> resourceClass,
+                                 JDBCRelation[] relations) {
+    String prefix = plan.getMap().getName() + "_";
+    Map<String, JDBCIndex> indexes = new LinkedHashMap<>();
+
+    for(int i=0; i<plan.getFieldsCount(); ++i) {
+      FieldMap fieldMap = plan.getField(i);
+      Indexed indexed = findAnnotation(resourceClass, fieldMap.getName());
+      if (indexed != null) {
+        String name = prefix + (indexed.name().isEmpty() ? fieldMap.getName() : indexed.name()) + "_idx";
+        JDBCIndex index = indexes.get(name);
+        if (index == null) {
+          index = new JDBCIndex(name, plan.getTableName(), indexed.unique());
+          indexes.put(name, index);
+        }
+        index.addColumn(plan.getColumnName(i));
+      } else if (fieldMap.getType().isReference() && !fieldMap.isKey()) {
+        String name = prefix + fieldMap.getName() + "_idx";
+        indexes.put(name, new JDBCIndex(name, plan.getTableName(), false).addColumn(plan.getColumnName(i)));
+      }
+    }
+
+    List<JDBCIndex> res = new ArrayList<>(indexes.values());
+    for(JDBCRelation relation : relations) {
+      // The children are loaded and deleted by parent, in the order of their
+      // position
+      String name = prefix + relation.getField().getName() + "_parent_idx";
+      res.add(new JDBCIndex(name, relation.getTableName(), false)
+              .addColumn(store.quoteSystemIdentifier(JDBCRelation.PARENT_COLUMN))
+              .addColumn(store.quoteSystemIdentifier(JDBCRelation.POSITION_COLUMN)));
+    }
+    return res;
+  }
+
+  private static Indexed findAnnotation(Class<?> clazz, String fieldName) {
+    for(Class<?> c = clazz; c != null; c = c.getSuperclass()) {
+      try {
+        Field field = c.getDeclaredField(fieldName);
+        return field.getAnnotation(Indexed.class);
+      } catch(NoSuchFieldException e) {
+        // Look into the super class
+      }
+    }
+    return null;
+  }
+}
@@ -0,0 +1,137 @@
+package com.sharingapples.sync.store.jdbc;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.sharingapples.sync.resource.DataType;
+import com.sharingapples.sync.resource.ResourceMap;
+import com.sharingapples.sync.store.StoreException;
+
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes the rows of a ResultSet straight to a JsonGenerator as JSON objects,
+ * without materializing the resources. The properties are named after the
+ * fields of the ResourceMap and the values follow DataType.toJSON, the
+ * references being written as the primary field value of the referenced
+ * resource. The int, long and string columns are written directly from the
+ * ResultSet, the other types go through DataType.toJSON.
+ *
+ * Only the fields of the plan present in the ResultSet are written.
+ */
+class JDBCJsonWriter {
+  // The way each column is read and written
+  private static final byte TREE = 0;
+  private static final byte INT = 1;
+  private static final byte LONG = 2;
+  private static final byte STRING = 3;
+
+  private final SerializableString[] names;
+  private final int[] columns;
+  private final JDBCFieldMapper[] mappers;
+  private final DataType[] types;
+  private final byte[] kinds;
+
+  JDBCJsonWriter(JDBCResourcePlan<?> plan, ResultSet rs) {
+    List<Integer> indexes = new ArrayList<>();
+    List<Integer> columns = new ArrayList<>();
+    for(int i=0; i<plan.getFieldsCount(); ++i) {
+      try {
+        columns.add(rs.findColumn(plan.getField(i).getName()));
+        indexes.add(i);
+      } catch(SQLException e) {
+        // Not selected
+      }
+    }
+
+    int count = indexes.size();
+    names = new SerializableString[count];
+    this.columns = new int[count];
+    mappers = new JDBCFieldMapper[count];
+    types = new DataType[count];
+    kinds = new byte[count];
+    for(int i=0; i<count; ++i) {
+      int index = indexes.get(i);
+      names[i] = new SerializedString(plan.getField(index).getName());
+      this.columns[i] = columns.get(i);
+      mappers[i] = plan.getMapper(index);
+      types[i] = columnType(plan.getField(index).getType());
+      kinds[i] = kind(mappers[i]);
+    }
+  }
+
+  private static DataType columnType(DataType type) {
+    if (type.isReference()) {
+      return columnType(((ResourceMap) type).getPrimaryField().getType());
+    } else {
+      return type;
+    }
+  }
+
+  private static byte kind(JDBCFieldMapper mapper) {
+    if (mapper instanceof JDBCFieldMapper.IntMapper) {
+      return INT;
+    } else if (mapper instanceof JDBCFieldMapper.LongMapper) {
+      return LONG;
+    } else if (mapper.getValueType() == String.class) {
+      return STRING;
+    } else {
+      return TREE;
+    }
+  }
+
+  /**
+   * Write the current row as a JSON object
+   */
+  void write(ResultSet rs, JsonGenerator generator) throws IOException {
+    generator.writeStartObject();
+    for(int i=0; i<names.length; ++i) {
+      generator.writeFieldName(names[i]);
+      try {
+        writeValue(rs, i, generator);
+      } catch(SQLException e) {
+        throw new StoreException("Could not read " + names[i].getValue(), e);
+      }
+    }
+    generator.writeEndObject();
+  }
+
+  private void writeValue(ResultSet rs, int i, JsonGenerator generator) throws SQLException, IOException {
+    int column = columns[i];
+    switch(kinds[i]) {
+      case INT:
+        int intValue = ((JDBCFieldMapper.IntMapper) mappers[i]).getInt(rs, column);
+        if (rs.wasNull()) {
+          generator.writeNull();
+        } else {
+          generator.writeNumber(intValue);
+        }
+        break;
+      case LONG:
+        long longValue = ((JDBCFieldMapper.LongMapper) mappers[i]).getLong(rs, column);
+        if (rs.wasNull()) {
+          generator.writeNull();
+        } else {
+          generator.writeNumber(longValue);
+        }
+        break;
+      case STRING:
+        // writeString writes a null as a JSON null
+        generator.writeString((String) mappers[i].getValue(rs, column));
+        break;
+      default:
+        Object value = mappers[i].getValue(rs, column);
+        if (value == null) {
+          generator.writeNull();
+        } else {
+          // Serialized by the node itself, the generator may have no codec
+          // for writeTree
+          types[i].toJSON(value).serialize(generator, null);
+        }
+    }
+  }
+}
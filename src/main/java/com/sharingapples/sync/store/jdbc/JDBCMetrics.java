@@ -0,0 +1,156 @@
+package com.sharingapples.sync.store.jdbc;
+
+import com.sharingapples.sync.resource.ResourceMap;
+import com.sharingapples.sync.store.StoreException;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The default JDBCMetricsListener, aggregating the counters and the latency
+ * histograms per ResourceMap and operation. Recording is lock free and does
+ * not allocate once an operation has been seen for a map. The metrics are
+ * exported as an MXBean with {@link #register(String)}, which is what
+ * {@link StoreJDBC#enableMetrics(String)} does.
+ */
+public class JDBCMetrics implements JDBCMetricsListener, JDBCMetricsMXBean {
+  public static final String DOMAIN = "com.sharingapples.sync.store.jdbc";
+
+  private static final Operation[] OPERATIONS = Operation.values();
+
+  private static class OperationMetrics {
+    private final LongAdder count = new LongAdder();
+    private final LongAdder rows = new LongAdder();
+    private final LatencyHistogram prepareLatency = new LatencyHistogram();
+    private final LatencyHistogram executeLatency = new LatencyHistogram();
+    private final LatencyHistogram mapLatency = new LatencyHistogram();
+  }
+
+  private final Map<ResourceMap<?>, OperationMetrics[]> metrics = new ConcurrentHashMap<>();
+  private final LatencyHistogram commitLatency = new LatencyHistogram();
+
+  private ObjectName objectName;
+
+  private OperationMetrics get(ResourceMap<?> map, Operation operation) {
+    OperationMetrics[] operations = metrics.computeIfAbsent(map, m -> {
+      OperationMetrics[] res = new OperationMetrics[OPERATIONS.length];
+      for(int i=0; i<res.length; ++i) {
+        res[i] = new OperationMetrics();
+      }
+      return res;
+    });
+    return operations[operation.ordinal()];
+  }
+
+  @Override
+  public void onExecute(ResourceMap<?> map, Operation operation, long prepareNanos, long executeNanos, int rows) {
+    OperationMetrics m = get(map, operation);
+    m.count.increment();
+    m.rows.add(rows);
+    m.prepareLatency.record(prepareNanos);
+    m.executeLatency.record(executeNanos);
+  }
+
+  @Override
+  public void onRead(ResourceMap<?> map, int rows, long mapNanos) {
+    OperationMetrics m = get(map, Operation.READ);
+    m.count.increment();
+    m.rows.add(rows);
+    m.mapLatency.record(mapNanos);
+  }
+
+  @Override
+  public void onCommit(long commitNanos) {
+    commitLatency.record(commitNanos);
+  }
+
+  /**
+   * @return The statistics of the given operation on the given map
+   */
+  public JDBCOperationStats getStats(ResourceMap<?> map, Operation operation) {
+    OperationMetrics m = get(map, operation);
+    return new JDBCOperationStats(map.getName(), operation, m.count.sum(), m.rows.sum(),
+            m.prepareLatency, m.executeLatency, m.mapLatency);
+  }
+
+  @Override
+  public List<JDBCOperationStats> getOperations() {
+    List<JDBCOperationStats> res = new ArrayList<>();
+    for(Map.Entry<ResourceMap<?>, OperationMetrics[]> entry : metrics.entrySet()) {
+      OperationMetrics[] operations = entry.getValue();
+      for(int i=0; i<operations.length; ++i) {
+        OperationMetrics m = operations[i];
+        long count = m.count.sum();
+        if (count > 0) {
+          res.add(new JDBCOperationStats(entry.getKey().getName(), OPERATIONS[i], count, m.rows.sum(),
+                  m.prepareLatency, m.executeLatency, m.mapLatency));
+        }
+      }
+    }
+    return res;
+  }
+
+  public LatencyHistogram getCommitLatency() {
+    return commitLatency;
+  }
+
+  @Override
+  public long getCommitCount() {
+    return commitLatency.getCount();
+  }
+
+  @Override
+  public double getCommitMeanNanos() {
+    return commitLatency.getMeanNanos();
+  }
+
+  @Override
+  public long getCommitP99Nanos() {
+    return commitLatency.getPercentileNanos(99);
+  }
+
+  @Override
+  public long getCommitMaxNanos() {
+    return commitLatency.getMaxNanos();
+  }
+
+  /**
+   * Register the metrics on the platform MBeanServer as
+   * com.sharingapples.sync.store.jdbc:type=StoreJDBC,name=[name]
+   */
+  public synchronized void register(String name) throws StoreException {
+    if (objectName != null) {
+      throw new StoreException("Metrics already registered as " + objectName);
+    }
+
+    try {
+      ObjectName on = new ObjectName(DOMAIN + ":type=StoreJDBC,name=" + ObjectName.quote(name));
+      ManagementFactory.getPlatformMBeanServer().registerMBean(this, on);
+      objectName = on;
+    } catch(JMException e) {
+      throw new StoreException("Could not register the metrics " + name, e);
+    }
+  }
+
+  public synchronized void unregister() {
+    if (objectName == null) {
+      return;
+    }
+
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    try {
+      server.unregisterMBean(objectName);
+    } catch(JMException e) {
+      throw new StoreException("Could not unregister the metrics " + objectName, e);
+    } finally {
+      objectName = null;
+    }
+  }
+}
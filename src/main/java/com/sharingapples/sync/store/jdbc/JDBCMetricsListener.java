@@ -0,0 +1,61 @@
+package com.sharingapples.sync.store.jdbc;
+
+import com.sharingapples.sync.resource.ResourceMap;
+
+/**
+ * Receives the timings of the statements executed by the engines of a
+ * StoreJDBC, see {@link StoreJDBC#setMetricsListener(JDBCMetricsListener)}.
+ * The listener is called on the thread of the engine, within its session,
+ * and must therefore be cheap and thread safe. {@link JDBCMetrics} is the
+ * default implementation, aggregating the timings and exporting them
+ * through JMX.
+ *
+ * The engines do not read the clock at all when no listener is set.
+ */
+public interface JDBCMetricsListener {
+
+  enum Operation {
+    INSERT,
+    UPDATE,
+    UPSERT,
+    DELETE,
+    FETCH,
+    FETCH_ALL,
+    FETCH_PAGE,
+    FETCH_MANY,
+    // The join table statements of the Many relations
+    LOAD_MANY,
+    SAVE_MANY,
+    // The iteration of the record sets, reported through onRead
+    READ;
+
+    boolean isQuery() {
+      return this == FETCH || this == FETCH_ALL || this == FETCH_PAGE || this == FETCH_MANY || this == LOAD_MANY;
+    }
+  }
+
+  /**
+   * A statement (or a batch) has been executed for the given map
+   *
+   * @param prepareNanos The time taken to prepare the statements of the
+   *                     operation, mostly the statement cache lookups
+   * @param executeNanos The time taken to bind the parameters and execute
+   *                     the statement
+   * @param rows The number of records written, 0 for the queries whose
+   *             records are reported by {@link #onRead} once read
+   */
+  void onExecute(ResourceMap<?> map, Operation operation, long prepareNanos, long executeNanos, int rows);
+
+  /**
+   * A record set of the given map has been closed
+   *
+   * @param rows The number of records read
+   * @param mapNanos The time taken to materialize the records
+   */
+  void onRead(ResourceMap<?> map, int rows, long mapNanos);
+
+  /**
+   * A session has been committed, including the wait for the group commit
+   */
+  void onCommit(long commitNanos);
+}
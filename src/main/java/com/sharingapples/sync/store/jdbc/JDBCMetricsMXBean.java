@@ -0,0 +1,23 @@
+package com.sharingapples.sync.store.jdbc;
+
+import java.util.List;
+
+/**
+ * The JMX view of the {@link JDBCMetrics} of a StoreJDBC
+ */
+public interface JDBCMetricsMXBean {
+
+  /**
+   * @return The statistics of every operation executed so far on every
+   *         ResourceMap
+   */
+  List<JDBCOperationStats> getOperations();
+
+  long getCommitCount();
+
+  double getCommitMeanNanos();
+
+  long getCommitP99Nanos();
+
+  long getCommitMaxNanos();
+}
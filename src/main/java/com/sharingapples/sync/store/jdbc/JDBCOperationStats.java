@@ -0,0 +1,79 @@
+package com.sharingapples.sync.store.jdbc;
+
+/**
+ * The statistics of an operation on a ResourceMap, see {@link JDBCMetrics}
+ */
+public class JDBCOperationStats {
+  private final String resource;
+  private final JDBCMetricsListener.Operation operation;
+  private final long count;
+  private final long rows;
+  private final LatencyHistogram prepareLatency;
+  private final LatencyHistogram executeLatency;
+  private final LatencyHistogram mapLatency;
+
+  JDBCOperationStats(String resource, JDBCMetricsListener.Operation operation, long count, long rows,
+                     LatencyHistogram prepareLatency, LatencyHistogram executeLatency, LatencyHistogram mapLatency) {
+    this.resource = resource;
+    this.operation = operation;
+    this.count = count;
+    this.rows = rows;
+    this.prepareLatency = prepareLatency;
+    this.executeLatency = executeLatency;
+    this.mapLatency = mapLatency;
+  }
+
+  public String getResource() {
+    return resource;
+  }
+
+  public String getOperation() {
+    return operation.name();
+  }
+
+  /**
+   * @return The number of statements (or batches) executed, or the number
+   *         of record sets read for READ
+   */
+  public long getCount() {
+    return count;
+  }
+
+  /**
+   * @return The number of records written, or read for READ
+   */
+  public long getRows() {
+    return rows;
+  }
+
+  public double getPrepareMeanNanos() {
+    return prepareLatency.getMeanNanos();
+  }
+
+  public double getExecuteMeanNanos() {
+    return executeLatency.getMeanNanos();
+  }
+
+  public long getExecuteP50Nanos() {
+    return executeLatency.getPercentileNanos(50);
+  }
+
+  public long getExecuteP99Nanos() {
+    return executeLatency.getPercentileNanos(99);
+  }
+
+  public long getExecuteMaxNanos() {
+    return executeLatency.getMaxNanos();
+  }
+
+  /**
+   * @return The mean time taken to materialize a record set, for READ
+   */
+  public double getMapMeanNanos() {
+    return mapLatency.getMeanNanos();
+  }
+
+  public long getMapP99Nanos() {
+    return mapLatency.getPercentileNanos(99);
+  }
+}
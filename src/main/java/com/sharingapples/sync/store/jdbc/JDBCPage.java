@@ -0,0 +1,46 @@
+package com.sharingapples.sync.store.jdbc;
+
+import com.sharingapples.sync.resource.Key;
+import com.sharingapples.sync.resource.Resource;
+
+/**
+ * A page of records retrieved with the keyset pagination of
+ * {@link EngineJDBC#fetchPage}. The records are read as the page is iterated,
+ * so the continuation key is available only after the records have been
+ * consumed.
+ */
+public class JDBCPage<T extends Resource> implements AutoCloseable {
+  private final JDBCRecordSet<T> records;
+  private final int limit;
+
+  JDBCPage(JDBCRecordSet<T> records, int limit) {
+    this.records = records;
+    this.limit = limit;
+  }
+
+  public JDBCRecordSet<T> getRecords() {
+    return records;
+  }
+
+  public int getLimit() {
+    return limit;
+  }
+
+  /**
+   * Retrieve the key to be passed to fetchPage for retrieving the next page.
+   * Needs to be called after iterating through the records.
+   *
+   * @return The key of the last record, or null if this was the last page
+   */
+  public Key getNextKey() {
+    if (records.getCount() < limit) {
+      return null;
+    }
+    return records.getLastKey();
+  }
+
+  @Override
+  public void close() {
+    records.close();
+  }
+}
@@ -0,0 +1,191 @@
+package com.sharingapples.sync.store.jdbc;
+
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+
+/**
+ * The configuration of the connection pool of a StoreJDBC. The defaults are
+ * the DBCP2 defaults, a pool of up to 8 connections without validation or
+ * eviction, waiting indefinitely for a connection.
+ */
+public class JDBCPoolConfig {
+  private int maxTotal = GenericObjectPoolConfig.DEFAULT_MAX_TOTAL;
+  private int maxIdle = GenericObjectPoolConfig.DEFAULT_MAX_IDLE;
+  private int minIdle = GenericObjectPoolConfig.DEFAULT_MIN_IDLE;
+  private long maxWaitMillis = GenericObjectPoolConfig.DEFAULT_MAX_WAIT_MILLIS;
+  private boolean fairness = GenericObjectPoolConfig.DEFAULT_FAIRNESS;
+
+  private String validationQuery;
+  private int validationQueryTimeout = -1;
+  private boolean testOnBorrow;
+  private boolean testWhileIdle;
+
+  private long timeBetweenEvictionRunsMillis = GenericObjectPoolConfig.DEFAULT_TIME_BETWEEN_EVICTION_RUNS_MILLIS;
+  private long minEvictableIdleTimeMillis = GenericObjectPoolConfig.DEFAULT_MIN_EVICTABLE_IDLE_TIME_MILLIS;
+
+  private int statementCacheSize = StoreJDBC.DEFAULT_STATEMENT_CACHE_SIZE;
+
+  public JDBCPoolConfig() {
+  }
+
+  public JDBCPoolConfig(JDBCPoolConfig other) {
+    this.maxTotal = other.maxTotal;
+    this.maxIdle = other.maxIdle;
+    this.minIdle = other.minIdle;
+    this.maxWaitMillis = other.maxWaitMillis;
+    this.fairness = other.fairness;
+    this.validationQuery = other.validationQuery;
+    this.validationQueryTimeout = other.validationQueryTimeout;
+    this.testOnBorrow = other.testOnBorrow;
+    this.testWhileIdle = other.testWhileIdle;
+    this.timeBetweenEvictionRunsMillis = other.timeBetweenEvictionRunsMillis;
+    this.minEvictableIdleTimeMillis = other.minEvictableIdleTimeMillis;
+    this.statementCacheSize = other.statementCacheSize;
+  }
+
+  public int getMaxTotal() {
+    return maxTotal;
+  }
+
+  /**
+   * The maximum number of connections, a negative value for no limit
+   */
+  public void setMaxTotal(int maxTotal) {
+    this.maxTotal = maxTotal;
+  }
+
+  public int getMaxIdle() {
+    return maxIdle;
+  }
+
+  /**
+   * The maximum number of idle connections kept in the pool
+   */
+  public void setMaxIdle(int maxIdle) {
+    this.maxIdle = maxIdle;
+  }
+
+  public int getMinIdle() {
+    return minIdle;
+  }
+
+  /**
+   * The number of idle connections the evictor keeps ready, effective only
+   * with the eviction runs enabled
+   */
+  public void setMinIdle(int minIdle) {
+    this.minIdle = minIdle;
+  }
+
+  public long getMaxWaitMillis() {
+    return maxWaitMillis;
+  }
+
+  /**
+   * The milliseconds to wait for a connection when the pool is exhausted
+   * before failing, a negative value to wait indefinitely
+   */
+  public void setMaxWaitMillis(long maxWaitMillis) {
+    this.maxWaitMillis = maxWaitMillis;
+  }
+
+  public boolean isFairness() {
+    return fairness;
+  }
+
+  /**
+   * Serve the threads waiting for a connection in their order of arrival
+   */
+  public void setFairness(boolean fairness) {
+    this.fairness = fairness;
+  }
+
+  public String getValidationQuery() {
+    return validationQuery;
+  }
+
+  /**
+   * The query validating the connections, null to use Connection.isValid
+   */
+  public void setValidationQuery(String validationQuery) {
+    this.validationQuery = validationQuery;
+  }
+
+  public int getValidationQueryTimeout() {
+    return validationQueryTimeout;
+  }
+
+  /**
+   * The seconds before the validation fails, a negative value for no timeout
+   */
+  public void setValidationQueryTimeout(int validationQueryTimeout) {
+    this.validationQueryTimeout = validationQueryTimeout;
+  }
+
+  public boolean isTestOnBorrow() {
+    return testOnBorrow;
+  }
+
+  public void setTestOnBorrow(boolean testOnBorrow) {
+    this.testOnBorrow = testOnBorrow;
+  }
+
+  public boolean isTestWhileIdle() {
+    return testWhileIdle;
+  }
+
+  public void setTestWhileIdle(boolean testWhileIdle) {
+    this.testWhileIdle = testWhileIdle;
+  }
+
+  public long getTimeBetweenEvictionRunsMillis() {
+    return timeBetweenEvictionRunsMillis;
+  }
+
+  /**
+   * The milliseconds between the runs of the idle connection evictor, a
+   * negative value to disable the evictor
+   */
+  public void setTimeBetweenEvictionRunsMillis(long timeBetweenEvictionRunsMillis) {
+    this.timeBetweenEvictionRunsMillis = timeBetweenEvictionRunsMillis;
+  }
+
+  public long getMinEvictableIdleTimeMillis() {
+    return minEvictableIdleTimeMillis;
+  }
+
+  /**
+   * The milliseconds a connection may stay idle before being evicted
+   */
+  public void setMinEvictableIdleTimeMillis(long minEvictableIdleTimeMillis) {
+    this.minEvictableIdleTimeMillis = minEvictableIdleTimeMillis;
+  }
+
+  public int getStatementCacheSize() {
+    return statementCacheSize;
+  }
+
+  /**
+   * The number of prepared statements cached per connection, 0 to disable
+   * the statement caching
+   */
+  public void setStatementCacheSize(int statementCacheSize) {
+    if (statementCacheSize < 0) {
+      throw new IllegalArgumentException("Statement cache size cannot be negative");
+    }
+    this.statementCacheSize = statementCacheSize;
+  }
+
+  GenericObjectPoolConfig toPoolConfig() {
+    GenericObjectPoolConfig config = new GenericObjectPoolConfig();
+    config.setMaxTotal(maxTotal);
+    config.setMaxIdle(maxIdle);
+    config.setMinIdle(minIdle);
+    config.setMaxWaitMillis(maxWaitMillis);
+    config.setFairness(fairness);
+    config.setTestOnBorrow(testOnBorrow);
+    config.setTestWhileIdle(testWhileIdle);
+    config.setTimeBetweenEvictionRunsMillis(timeBetweenEvictionRunsMillis);
+    config.setMinEvictableIdleTimeMillis(minEvictableIdleTimeMillis);
+    return config;
+  }
+}
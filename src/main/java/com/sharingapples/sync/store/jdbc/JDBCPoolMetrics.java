@@ -0,0 +1,59 @@
+package com.sharingapples.sync.store.jdbc;
+
+import org.apache.commons.pool2.impl.GenericObjectPool;
+
+/**
+ * The live metrics of a connection pool of a StoreJDBC. The values are read
+ * from the pool on every call.
+ */
+public class JDBCPoolMetrics {
+  private final GenericObjectPool<?> pool;
+  private final LatencyHistogram borrowLatency;
+
+  JDBCPoolMetrics(GenericObjectPool<?> pool, LatencyHistogram borrowLatency) {
+    this.pool = pool;
+    this.borrowLatency = borrowLatency;
+  }
+
+  /**
+   * @return The number of connections in use by the engines
+   */
+  public int getActive() {
+    return pool.getNumActive();
+  }
+
+  /**
+   * @return The number of connections available in the pool
+   */
+  public int getIdle() {
+    return pool.getNumIdle();
+  }
+
+  /**
+   * @return The number of threads waiting for a connection, anything above
+   *         0 for a long time means the pool is saturated
+   */
+  public int getWaiters() {
+    return pool.getNumWaiters();
+  }
+
+  public int getMaxTotal() {
+    return pool.getMaxTotal();
+  }
+
+  public long getCreatedCount() {
+    return pool.getCreatedCount();
+  }
+
+  public long getDestroyedCount() {
+    return pool.getDestroyedCount();
+  }
+
+  /**
+   * @return The time taken to borrow the connections, including the waits
+   *         for an exhausted pool and the creation of the new connections
+   */
+  public LatencyHistogram getBorrowLatency() {
+    return borrowLatency;
+  }
+}
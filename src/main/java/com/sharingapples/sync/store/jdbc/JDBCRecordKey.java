@@ -0,0 +1,56 @@
+package com.sharingapples.sync.store.jdbc;
+
+import com.sharingapples.sync.resource.Key;
+import com.sharingapples.sync.resource.ResourceMap;
+
+import java.util.Arrays;
+
+/**
+ * Identifies a record by its ResourceMap and the values of its primary key,
+ * for the maps kept outside of the ResourceMap identity (the resource cache
+ * and the dirty tracking snapshots).
+ */
+final class JDBCRecordKey {
+  private final ResourceMap<?> map;
+  private final Object[] values;
+  private final int hash;
+
+  JDBCRecordKey(ResourceMap<?> map, Key key) {
+    this(map, keyValues(key));
+  }
+
+  /**
+   * @param values The values of the key fields in the order of the plan
+   */
+  JDBCRecordKey(ResourceMap<?> map, Object[] values) {
+    this.map = map;
+    this.values = values;
+    this.hash = 31 * System.identityHashCode(map) + Arrays.hashCode(values);
+  }
+
+  private static Object[] keyValues(Key key) {
+    Object[] values = new Object[key.getFieldCount()];
+    for(int i=0; i<values.length; ++i) {
+      values[i] = key.getValue(i);
+    }
+    return values;
+  }
+
+  ResourceMap<?> getMap() {
+    return map;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (!(obj instanceof JDBCRecordKey)) {
+      return false;
+    }
+    JDBCRecordKey other = (JDBCRecordKey) obj;
+    return map == other.map && Arrays.equals(values, other.values);
+  }
+
+  @Override
+  public int hashCode() {
+    return hash;
+  }
+}
@@ -1,54 +1,108 @@
 package com.sharingapples.sync.store.jdbc;
 
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.sharingapples.sync.resource.FieldMap;
+import com.sharingapples.sync.resource.Key;
 import com.sharingapples.sync.resource.ResourceMap;
 import com.sharingapples.sync.resource.Resource;
 import com.sharingapples.sync.store.RecordSet;
 import com.sharingapples.sync.store.StoreException;
 
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * A RecordSet implementation that wraps around the JDBC ResultSet
  *
  * Created by ranjan on 12/13/15.
  */
-public class JDBCRecordSet<T extends Resource> implements RecordSet<T> {
+public class JDBCRecordSet<T extends Resource> implements RecordSet<T>, AutoCloseable {
 
+  private final EngineJDBC engine;
   private final StoreJDBC store;
-  private final Statement statement;
+  private final PreparedStatement statement;
+  private final String sql;
   private final ResourceMap<T> map;
   private final ResultSet rs;
 
 
+  private final JDBCResourcePlan<T> plan;
   private final int[] columnIndexes;
   private final int primaryFieldColumnIndex;
+  private final JDBCFieldMapper primaryFieldMapper;
+  private JDBCRowMapper<T> rowMapper;
 
-  JDBCRecordSet(StoreJDBC store, Statement statement, ResourceMap<T> map, ResultSet rs) throws StoreException {
-    this.store = store;
+  private boolean closed = false;
+  private int count = 0;
+  private Object lastId;
+
+  // The primary key of the last record read, when tracked for pagination
+  private JDBCResourcePlan<T> keyPlan;
+  private int[] keyColumnIndexes;
+  private Object[] lastKeyValues;
+
+  // The instrumentation of the engine, null when disabled
+  private final JDBCMetricsListener metrics;
+  private long mapNanos;
+
+  // The index in the plan of each key field, when the engine keeps the state
+  // of the records read for its dirty tracking
+  private final int[] keyFieldIndexes;
+
+  JDBCRecordSet(EngineJDBC engine, PreparedStatement statement, String sql, ResourceMap<T> map, ResultSet rs) throws StoreException {
+    this(engine, statement, sql, map, rs, false, true);
+  }
+
+  JDBCRecordSet(EngineJDBC engine, PreparedStatement statement, String sql, ResourceMap<T> map, ResultSet rs,
+                boolean partial) throws StoreException {
+    this(engine, statement, sql, map, rs, partial, !partial);
+  }
+
+  /**
+   * @param partial true when the result set has only some of the columns of
+   *                the resource (a projection), the fields missing being left
+   *                as they are on the resources
+   * @param tracked true to hand over the records read to the dirty tracking
+   *                of the engine, ignored for a partial result set
+   */
+  JDBCRecordSet(EngineJDBC engine, PreparedStatement statement, String sql, ResourceMap<T> map, ResultSet rs,
+                boolean partial, boolean tracked) throws StoreException {
+    this.engine = engine;
+    this.store = engine.getStore();
     this.statement = statement;
+    this.sql = sql;
     this.map = map;
     this.rs = rs;
+    this.metrics = engine.getMetricsListener();
 
-    columnIndexes = new int[map.getFieldsCount()];
+    // The plan contains only the persistable fields (no many relations, no transients)
+    this.plan = store.getPlan(map);
+    columnIndexes = new int[plan.getFieldsCount()];
     int primaryFieldColumnIndex = 0;
-    for(int i=0; i<map.getFieldsCount(); ++i) {
-      FieldMap fieldMap = map.getFieldMap(i);
-
-      // skip the many relations field
-      if (fieldMap.getType().isMany() || fieldMap.isTransient()) {
-        continue;
-      }
+    JDBCFieldMapper primaryFieldMapper = null;
+    for(int i=0; i<plan.getFieldsCount(); ++i) {
+      FieldMap fieldMap = plan.getField(i);
 
       try {
         columnIndexes[i] = rs.findColumn(fieldMap.getName());
       } catch(SQLException e) {
+        if (partial && !fieldMap.isKey() && map.getPrimaryField() != fieldMap) {
+          // Not selected
+          columnIndexes[i] = 0;
+          continue;
+        }
         throw new StoreException("Could not find field " + fieldMap.getName() + " in the result set of " + map.getName() + ". Check database structure.", e);
       }
       if (map.getPrimaryField() == fieldMap) {
         primaryFieldColumnIndex = columnIndexes[i];
+        primaryFieldMapper = plan.getMapper(i);
       }
     }
 
@@ -57,16 +111,34 @@ public class JDBCRecordSet<T extends Resource> implements RecordSet<T> {
     }
 
     this.primaryFieldColumnIndex = primaryFieldColumnIndex;
+    this.primaryFieldMapper = primaryFieldMapper;
+
+    // The state of a partial record cannot be compared with the updates
+    if (engine.isDirtyTracking() && plan.getKeyFieldsCount() > 0 && !partial && tracked) {
+      keyFieldIndexes = new int[plan.getKeyFieldsCount()];
+      for(int i=0; i<keyFieldIndexes.length; ++i) {
+        for(int j=0; j<plan.getFieldsCount(); ++j) {
+          if (plan.getField(j) == plan.getKeyField(i)) {
+            keyFieldIndexes[i] = j;
+          }
+        }
+      }
+    } else {
+      keyFieldIndexes = null;
+    }
   }
 
   @Override
   public boolean hasNext() {
+    if (closed) {
+      return false;
+    }
+
     try {
       if (rs.next()) {
         return true;
       } else {
-        rs.close();
-        statement.close();
+        close();
         return false;
       }
     } catch(SQLException e) {
@@ -74,37 +146,193 @@ public class JDBCRecordSet<T extends Resource> implements RecordSet<T> {
     }
   }
 
+  /**
+   * Close the underlying ResultSet and give back the statement. Invoked
+   * automatically once all the records have been iterated, needs to be
+   * called explicitly when the iteration is abandoned midway.
+   */
+  @Override
+  public void close() {
+    if (closed) {
+      return;
+    }
+
+    closed = true;
+    if (metrics != null) {
+      metrics.onRead(map, count, mapNanos);
+    }
+
+    try {
+      rs.close();
+    } catch(SQLException e) {
+      throw new StoreException("Error while closing the record set of " + map.getName(), e);
+    } finally {
+      engine.releaseStatement(sql, statement);
+    }
+  }
+
+  /**
+   * Expose the records as a sequential Stream. The records are read from the
+   * ResultSet as the stream is consumed, and closing the stream closes the
+   * record set.
+   */
+  public Stream<T> stream() {
+    Spliterator<T> spliterator = new Spliterators.AbstractSpliterator<T>(Long.MAX_VALUE,
+            Spliterator.ORDERED | Spliterator.NONNULL) {
+      @Override
+      public boolean tryAdvance(Consumer<? super T> action) {
+        if (!hasNext()) {
+          return false;
+        }
+        action.accept(next());
+        return true;
+      }
+    };
+
+    return StreamSupport.stream(spliterator, false).onClose(this::close);
+  }
+
   @Override
   public T next() {
+    if (metrics == null) {
+      return read();
+    }
 
+    long start = System.nanoTime();
+    try {
+      return read();
+    } finally {
+      mapNanos += System.nanoTime() - start;
+    }
+  }
+
+  private T read() {
     // First get the id of the record
     Object id;
     try {
-      id = store.getJDBCFieldType(map.getPrimaryField().getType()).getValue(rs, primaryFieldColumnIndex);
+      id = primaryFieldMapper.getValue(rs, primaryFieldColumnIndex);
     } catch(SQLException e) {
       throw new StoreException("Could not read primary key field value for " + map.getName());
     }
 
+    count += 1;
+    lastId = id;
+    if (keyPlan != null) {
+      readKeyValues();
+    }
+
     // if we have it in cache, we will update the same object, otherwise create a new one
     T res = map.find(id);
-    for (int i = 0; i < map.getFieldsCount(); ++i) {
-      FieldMap fieldMap = map.getFieldMap(i);
+    if (rowMapper == null || rowMapper.getResourceClass() != res.getClass()) {
+      rowMapper = plan.getRowMapper(res.getClass());
+    }
+    rowMapper.map(rs, columnIndexes, res);
+    if (keyFieldIndexes != null) {
+      snapshot();
+    }
+
+    return res;
 
-      // skip the many relations field
-      if (fieldMap.getType().isMany() || fieldMap.isTransient()) {
-        continue;
+  }
+
+  /**
+   * Hand over the column values of the current record to the engine, as the
+   * state the updates of the record are compared with
+   */
+  private void snapshot() {
+    Object[] values = new Object[columnIndexes.length];
+    for(int i=0; i<values.length; ++i) {
+      try {
+        values[i] = plan.getMapper(i).getValue(rs, columnIndexes[i]);
+      } catch(SQLException e) {
+        throw new StoreException("Could not read " + plan.getField(i).getFullName(), e);
       }
+    }
 
+    Object[] keyValues = new Object[keyFieldIndexes.length];
+    for(int i=0; i<keyValues.length; ++i) {
+      keyValues[i] = values[keyFieldIndexes[i]];
+    }
+    engine.snapshot(map, keyValues, values);
+  }
+
+  /**
+   * Keep track of the primary key of the records read, which is needed to
+   * continue a keyset pagination after the last record of a page.
+   */
+  void trackKeys(JDBCResourcePlan<T> plan) {
+    keyColumnIndexes = new int[plan.getKeyFieldsCount()];
+    for(int i=0; i<keyColumnIndexes.length; ++i) {
+      FieldMap keyField = plan.getKeyField(i);
       try {
-        fieldMap.set(res, store.getJDBCFieldType(fieldMap.getType()).getValue(rs, columnIndexes[i]));
-      } catch (SQLException e) {
-        throw new StoreException("Could not read " + fieldMap.getFullName());
+        keyColumnIndexes[i] = rs.findColumn(keyField.getName());
+      } catch(SQLException e) {
+        throw new StoreException("Could not find key field " + keyField.getName() + " in the result set of " + map.getName() + ".", e);
       }
     }
+    lastKeyValues = new Object[keyColumnIndexes.length];
+    keyPlan = plan;
+  }
 
-    return res;
+  private void readKeyValues() {
+    for(int i=0; i<keyColumnIndexes.length; ++i) {
+      try {
+        lastKeyValues[i] = keyPlan.getKeyMapper(i).getValue(rs, keyColumnIndexes[i]);
+      } catch(SQLException e) {
+        throw new StoreException("Could not read key field " + keyPlan.getKeyField(i).getFullName());
+      }
+    }
+  }
+
+  /**
+   * @return The primary field value (the id passed on to map.find) of the
+   *         last record read
+   */
+  Object getLastId() {
+    return lastId;
+  }
+
+  int findColumn(String name) {
+    try {
+      return rs.findColumn(name);
+    } catch(SQLException e) {
+      throw new StoreException("Could not find column " + name + " in the result set of " + map.getName() + ".", e);
+    }
+  }
 
+  /**
+   * Read the value of an additional column of the current record, that is
+   * not mapped to the resource.
+   */
+  Object getValue(int column, JDBCFieldMapper mapper) {
+    try {
+      return mapper.getValue(rs, column);
+    } catch(SQLException e) {
+      throw new StoreException("Could not read column " + column + " of the result set of " + map.getName() + ".", e);
+    }
   }
 
+  /**
+   * @return The number of records read so far
+   */
+  public int getCount() {
+    return count;
+  }
 
+  /**
+   * @return The primary key of the last record read, null if no record has
+   *         been read or the keys are not being tracked
+   */
+  Key getLastKey() {
+    if (keyPlan == null || count == 0) {
+      return null;
+    }
+
+    ObjectNode node = JsonNodeFactory.instance.objectNode();
+    for(int i=0; i<lastKeyValues.length; ++i) {
+      FieldMap keyField = keyPlan.getKeyField(i);
+      node.set(keyField.getName(), keyField.getType().toJSON(lastKeyValues[i]));
+    }
+    return map.getPrimaryKey(node);
+  }
 }
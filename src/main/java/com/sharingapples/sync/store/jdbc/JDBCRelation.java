@@ -0,0 +1,171 @@
+package com.sharingapples.sync.store.jdbc;
+
+import com.sharingapples.sync.resource.FieldMap;
+import com.sharingapples.sync.resource.Many;
+import com.sharingapples.sync.resource.Resource;
+import com.sharingapples.sync.resource.ResourceMap;
+import com.sharingapples.sync.store.StoreException;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The mapping of a Many field to its join table. The join table of the
+ * relation "authors" of "book" is "book_authors" with the columns parent_id
+ * (the book id), child_id (the author id) and position (the index of the
+ * author in the Many collection).
+ */
+class JDBCRelation {
+  static final String PARENT_COLUMN = "parent_id";
+  static final String CHILD_COLUMN = "child_id";
+  static final String POSITION_COLUMN = "position";
+
+  // The alias of the parent id column in the load query
+  static final String PARENT_ALIAS = "__parent";
+
+  private final FieldMap field;
+  private final JDBCResourcePlan<?> parent;
+  private final JDBCResourcePlan<?> child;
+
+  private final String tableName;
+  private final String insertSql;
+  private final String deleteSql;
+  private final String loadPrefix;
+  private final String loadOrder;
+  private final String loadAnySql;
+
+  // The load statements keyed by the number of parent ids
+  private final ConcurrentMap<Integer, String> loadSqls = new ConcurrentHashMap<>();
+
+  private JDBCRelation(StoreJDBC store, FieldMap field, JDBCResourcePlan<?> parent, JDBCResourcePlan<?> child) {
+    this.field = field;
+    this.parent = parent;
+    this.child = child;
+
+    if (parent.getKeyFieldsCount() != 1 || child.getKeyFieldsCount() != 1) {
+      throw new StoreException("Many relation " + field.getFullName() + " is supported only between resources with single field keys");
+    }
+
+    this.tableName = getTableName(store, parent.getMap(), field);
+    String parentColumn = store.quoteSystemIdentifier(PARENT_COLUMN);
+    String childColumn = store.quoteSystemIdentifier(CHILD_COLUMN);
+    String positionColumn = store.quoteSystemIdentifier(POSITION_COLUMN);
+
+    insertSql = "INSERT INTO " + tableName + "(" + parentColumn + "," + childColumn + "," + positionColumn + ") VALUES (?,?,?)";
+    deleteSql = getDeleteSql(store, parent.getMap(), field);
+
+    // SELECT j.parent_id AS __parent, c.* FROM book_authors j JOIN author c ON c.id=j.child_id WHERE j.parent_id
+    loadPrefix = "SELECT j." + parentColumn + " AS " + store.quoteSystemIdentifier(PARENT_ALIAS) + ", c.*"
+            + " FROM " + tableName + " j JOIN " + child.getTableName() + " c"
+            + " ON c." + store.quoteSystemIdentifier(child.getKeyField(0).getName()) + "=j." + childColumn
+            + " WHERE j." + parentColumn;
+    loadOrder = " ORDER BY j." + parentColumn + ",j." + positionColumn;
+    loadAnySql = loadPrefix + "=ANY(?)" + loadOrder;
+  }
+
+  private static String getTableName(StoreJDBC store, ResourceMap<?> parent, FieldMap field) {
+    return store.quoteSystemIdentifier(parent.getName() + "_" + field.getName());
+  }
+
+  /**
+   * Build the statement removing all the children of a parent, which unlike
+   * the other statements does not need the relation to be resolved
+   */
+  static String getDeleteSql(StoreJDBC store, ResourceMap<?> parent, FieldMap field) {
+    return "DELETE FROM " + getTableName(store, parent, field)
+            + " WHERE " + store.quoteSystemIdentifier(PARENT_COLUMN) + "=?";
+  }
+
+  /**
+   * Resolve the relation for the given Many field. The type of the children
+   * is found from the generic type of the field declared on the resource
+   * class, since the ResourceMap does not carry it.
+   */
+  static JDBCRelation resolve(StoreJDBC store, Class<?> resourceClass, JDBCResourcePlan<?> parent, FieldMap field) {
+    Field javaField = null;
+    for(Class<?> c = resourceClass; c != null && javaField == null; c = c.getSuperclass()) {
+      try {
+        javaField = c.getDeclaredField(field.getName());
+      } catch(NoSuchFieldException e) {
+        // Look into the super class
+      }
+    }
+
+    if (javaField == null || javaField.getType() != Many.class) {
+      throw new StoreException("Could not find the Many field " + field.getFullName() + " in " + resourceClass.getName());
+    }
+
+    Type type = javaField.getGenericType();
+    if (!(type instanceof ParameterizedType)) {
+      throw new StoreException("The type of the Many field " + field.getFullName() + " is not declared");
+    }
+
+    Type childType = ((ParameterizedType) type).getActualTypeArguments()[0];
+    if (!(childType instanceof Class) || !Resource.class.isAssignableFrom((Class<?>) childType)) {
+      throw new StoreException("The Many field " + field.getFullName() + " does not refer to a Resource");
+    }
+
+    @SuppressWarnings("unchecked")
+    ResourceMap<?> childMap = store.getRegistrar().getResourceMap((Class<? extends Resource>) childType);
+    return new JDBCRelation(store, field, parent, store.getPlan(childMap));
+  }
+
+  public FieldMap getField() {
+    return field;
+  }
+
+  public JDBCResourcePlan<?> getParent() {
+    return parent;
+  }
+
+  public JDBCResourcePlan<?> getChild() {
+    return child;
+  }
+
+  public String getTableName() {
+    return tableName;
+  }
+
+  public String getInsertSql() {
+    return insertSql;
+  }
+
+  public String getDeleteSql() {
+    return deleteSql;
+  }
+
+  /**
+   * The SQL loading the children of all the parents given as a single array
+   * parameter, ordered by the parent and position.
+   */
+  public String getLoadAnySql() {
+    return loadAnySql;
+  }
+
+  /**
+   * The SQL loading the children of the given number of parents (rounded up
+   * the same way as {@link JDBCResourcePlan#getFetchManySize(int)}).
+   */
+  public String getLoadSql(int count) {
+    int size = parent.getFetchManySize(count);
+    String sql = loadSqls.get(size);
+    if (sql == null) {
+      StringBuilder sqlBuilder = new StringBuilder(loadPrefix);
+      sqlBuilder.append(" IN (");
+      for(int i=0; i<size; ++i) {
+        if (i > 0) {
+          sqlBuilder.append(',');
+        }
+        sqlBuilder.append('?');
+      }
+      sqlBuilder.append(')');
+      sqlBuilder.append(loadOrder);
+      sql = sqlBuilder.toString();
+      loadSqls.putIfAbsent(size, sql);
+    }
+    return sql;
+  }
+}
@@ -0,0 +1,205 @@
+package com.sharingapples.sync.store.jdbc;
+
+import com.sharingapples.sync.resource.FieldMap;
+import com.sharingapples.sync.resource.Key;
+import com.sharingapples.sync.resource.Resource;
+import com.sharingapples.sync.resource.ResourceMap;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded second level cache of the records fetched by key, shared by all
+ * the engines of a StoreJDBC. The cache is split into segments by the hash
+ * of the key, each one a LRU map under its own lock, so the lookups of
+ * different keys rarely contend. The entries also expire after a time to
+ * live.
+ *
+ * The records are invalidated by the engines once their updates and
+ * deletes have been committed. A fetch that started before the last
+ * invalidation of its ResourceMap could have read the record as it was
+ * before the commit, and is therefore not cached. For that, every
+ * invalidation is numbered with a store wide generation, and the records
+ * read by a session are cached only if their map has not been invalidated
+ * since the session started.
+ *
+ * The resources themselves are never shared through the cache. An entry
+ * holds the values of the persistable fields of the record, which are set
+ * on the resource of the ResourceMap on a hit, the same way as the row of a
+ * fetch from the database is. The references are kept by their primary
+ * field value.
+ */
+class JDBCResourceCache {
+  private static final int SEGMENTS = 16;
+
+  private static final class Entry {
+    private final Object id;
+    private final Object[] values;
+    private final long expiresAt;
+
+    Entry(Object id, Object[] values, long expiresAt) {
+      this.id = id;
+      this.values = values;
+      this.expiresAt = expiresAt;
+    }
+  }
+
+  private final long ttlNanos;
+  private final Map<JDBCRecordKey, Entry>[] segments;
+
+  private final AtomicLong generation = new AtomicLong();
+  private final Map<ResourceMap<?>, Long> invalidatedAt = new ConcurrentHashMap<>();
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+
+  @SuppressWarnings("unchecked")
+  JDBCResourceCache(int maximumSize, long ttlNanos) {
+    this.ttlNanos = ttlNanos;
+    this.segments = new Map[SEGMENTS];
+    final int segmentSize = Math.max(1, (maximumSize + SEGMENTS - 1) / SEGMENTS);
+    for(int i=0; i<SEGMENTS; ++i) {
+      segments[i] = new LinkedHashMap<JDBCRecordKey, Entry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<JDBCRecordKey, Entry> eldest) {
+          if (size() > segmentSize) {
+            evictions.increment();
+            return true;
+          }
+          return false;
+        }
+      };
+    }
+  }
+
+  private Map<JDBCRecordKey, Entry> segment(JDBCRecordKey key) {
+    int h = key.hashCode();
+    h ^= h >>> 16;
+    return segments[h & (SEGMENTS - 1)];
+  }
+
+  /**
+   * @return The generation to be passed to {@link #put} by the sessions
+   *         starting now
+   */
+  long getGeneration() {
+    return generation.get();
+  }
+
+  /**
+   * @return The resource of the map with the values of the cached record,
+   *         or null if the record is not in the cache or has expired
+   */
+  <T extends Resource> T get(JDBCResourcePlan<T> plan, Key key) {
+    JDBCRecordKey cacheKey = new JDBCRecordKey(plan.getMap(), key);
+    Map<JDBCRecordKey, Entry> segment = segment(cacheKey);
+    Entry entry;
+    synchronized (segment) {
+      entry = segment.get(cacheKey);
+      if (entry != null && System.nanoTime() - entry.expiresAt > 0) {
+        segment.remove(cacheKey);
+        entry = null;
+      }
+    }
+
+    if (entry == null) {
+      misses.increment();
+      return null;
+    }
+    hits.increment();
+
+    T res = plan.getMap().find(entry.id);
+    for(int i=0; i<entry.values.length; ++i) {
+      plan.getField(i).set(res, entry.values[i]);
+    }
+    return res;
+  }
+
+  /**
+   * Cache a record read by a session
+   *
+   * @param sessionGeneration The generation when the session started
+   */
+  <T extends Resource> void put(JDBCResourcePlan<T> plan, Key key, T resource, long sessionGeneration) {
+    ResourceMap<T> map = plan.getMap();
+    Object[] values = new Object[plan.getFieldsCount()];
+    for(int i=0; i<values.length; ++i) {
+      FieldMap fieldMap = plan.getField(i);
+      Object value = fieldMap.get(resource);
+      values[i] = fieldMap.getType().isReference() ? primaryValue((ResourceMap) fieldMap.getType(), value) : value;
+    }
+    Object id = primaryValue(map, resource);
+
+    JDBCRecordKey cacheKey = new JDBCRecordKey(map, key);
+    Map<JDBCRecordKey, Entry> segment = segment(cacheKey);
+    synchronized (segment) {
+      // Checked under the lock, an invalidation removes the key only after
+      // numbering the map
+      Long invalidated = invalidatedAt.get(map);
+      if (invalidated == null || invalidated <= sessionGeneration) {
+        segment.put(cacheKey, new Entry(id, values, System.nanoTime() + ttlNanos));
+      }
+    }
+  }
+
+  /**
+   * Retrieve the value identifying a resource in its map, the primary value
+   * of the referenced resource when the primary field is a reference
+   */
+  private static Object primaryValue(ResourceMap<?> map, Object resource) {
+    if (resource == null) {
+      return null;
+    }
+
+    FieldMap primaryField = map.getPrimaryField();
+    Object value = primaryField.get(resource);
+    if (primaryField.getType().isReference()) {
+      return primaryValue((ResourceMap) primaryField.getType(), value);
+    } else {
+      return value;
+    }
+  }
+
+  void invalidate(ResourceMap<?> map, Key key) {
+    invalidatedAt.put(map, generation.incrementAndGet());
+
+    JDBCRecordKey cacheKey = new JDBCRecordKey(map, key);
+    Map<JDBCRecordKey, Entry> segment = segment(cacheKey);
+    synchronized (segment) {
+      segment.remove(cacheKey);
+    }
+  }
+
+  /**
+   * Remove all the records of the given map
+   */
+  void invalidate(ResourceMap<?> map) {
+    invalidatedAt.put(map, generation.incrementAndGet());
+
+    for(Map<JDBCRecordKey, Entry> segment : segments) {
+      synchronized (segment) {
+        Iterator<JDBCRecordKey> it = segment.keySet().iterator();
+        while(it.hasNext()) {
+          if (it.next().getMap() == map) {
+            it.remove();
+          }
+        }
+      }
+    }
+  }
+
+  JDBCCacheStats getStats() {
+    int size = 0;
+    for(Map<JDBCRecordKey, Entry> segment : segments) {
+      synchronized (segment) {
+        size += segment.size();
+      }
+    }
+    return new JDBCCacheStats(hits.sum(), misses.sum(), evictions.sum(), size);
+  }
+}
@@ -0,0 +1,565 @@
+package com.sharingapples.sync.store.jdbc;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sharingapples.sync.resource.DataType;
+import com.sharingapples.sync.resource.FieldMap;
+import com.sharingapples.sync.resource.Resource;
+import com.sharingapples.sync.resource.ResourceMap;
+import com.sharingapples.sync.store.StoreException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.IntPredicate;
+
+/**
+ * The precomputed SQL statements and field bindings for a ResourceMap. A plan
+ * is built once per ResourceMap by the StoreJDBC and shared by all the
+ * engines of the store, so that the CRUD operations do not have to walk the
+ * ResourceMap and build the SQL for every record.
+ */
+class JDBCResourcePlan<T extends Resource> {
+  // The number of fields that can be represented in the update bitmask
+  private static final int MAX_MASK_FIELDS = 64;
+
+  // The maximum number of parameters in a multi key fetch, well below the
+  // default SQLITE_MAX_VARIABLE_NUMBER of 999
+  private static final int MAX_FETCH_MANY_PARAMETERS = 512;
+
+  private final ResourceMap<T> map;
+  private final Dialect dialect;
+  private final String tableName;
+
+  // The persistable fields (no Many relations, no transients) and their mappers
+  private final FieldMap[] fields;
+  private final String[] columnNames;
+  private final JDBCFieldMapper[] mappers;
+
+  // The primary key fields and their mappers
+  private final FieldMap[] keyFields;
+  private final JDBCFieldMapper[] keyMappers;
+
+  private final String selectAllSql;
+  private final String fetchSql;
+  private final String insertSql;
+  private final String insertValuesSql;
+  private final String generatedInsertSql;
+  private final String deleteSql;
+  private final String keyClause;
+  private final String firstPageSql;
+  private final String nextPageSql;
+  private final String fetchAnySql;
+  private final boolean rowValues;
+  private final String[] keyColumnNames;
+
+  // UPDATE statements keyed by the bitmask of the fields present in the node
+  private final ConcurrentMap<Long, String> updateSqls = new ConcurrentHashMap<>();
+
+  // INSERT ... ON CONFLICT statements keyed the same way as the updates
+  private final ConcurrentMap<Long, String> upsertSqls = new ConcurrentHashMap<>();
+
+  // Projection SELECT statements keyed by the bitmask of the fields selected
+  private final ConcurrentMap<Long, String> projectionSqls = new ConcurrentHashMap<>();
+
+  // Multi key SELECT statements keyed by the number of keys
+  private final ConcurrentMap<Integer, String> fetchManySqls = new ConcurrentHashMap<>();
+
+  private volatile JDBCRowMapper<T> rowMapper;
+
+  JDBCResourcePlan(StoreJDBC store, ResourceMap<T> map) {
+    this.map = map;
+    this.dialect = store.getDialect();
+    this.tableName = store.quoteSystemIdentifier(map.getName());
+
+    List<FieldMap> fieldList = new ArrayList<>();
+    List<FieldMap> keyList = new ArrayList<>();
+    for(int i=0; i<map.getFieldsCount(); ++i) {
+      FieldMap fieldMap = map.getFieldMap(i);
+      if (fieldMap.getType().isMany() || fieldMap.isTransient()) {
+        continue;
+      }
+
+      fieldList.add(fieldMap);
+      if (fieldMap.isKey()) {
+        keyList.add(fieldMap);
+      }
+    }
+
+    fields = fieldList.toArray(new FieldMap[fieldList.size()]);
+    columnNames = new String[fields.length];
+    mappers = new JDBCFieldMapper[fields.length];
+    for(int i=0; i<fields.length; ++i) {
+      columnNames[i] = store.quoteSystemIdentifier(fields[i].getName());
+      mappers[i] = store.getJDBCFieldType(fields[i].getType());
+    }
+
+    keyFields = keyList.toArray(new FieldMap[keyList.size()]);
+    keyMappers = new JDBCFieldMapper[keyFields.length];
+    keyColumnNames = new String[keyFields.length];
+    for(int i=0; i<keyFields.length; ++i) {
+      keyMappers[i] = store.getJDBCFieldType(keyFields[i].getType());
+      keyColumnNames[i] = store.quoteSystemIdentifier(keyFields[i].getName());
+    }
+    rowValues = dialect.supportsRowValues();
+
+    StringBuilder keyBuilder = new StringBuilder(" WHERE ");
+    for(int i=0; i<keyFields.length; ++i) {
+      if (i > 0) {
+        keyBuilder.append(" AND ");
+      }
+      keyBuilder.append(keyColumnNames[i]);
+      keyBuilder.append("=?");
+    }
+    keyClause = keyBuilder.toString();
+
+    selectAllSql = "SELECT * FROM " + tableName;
+    fetchSql = selectAllSql + keyClause;
+    deleteSql = "DELETE FROM " + tableName + keyClause;
+
+    // The keyset pagination, seeks past the last key with a
+    // (k1 > ?) OR (k1 = ? AND k2 > ?) ... predicate for composite keys
+    StringBuilder orderBuilder = new StringBuilder(" ORDER BY ");
+    StringBuilder seekBuilder = new StringBuilder(" WHERE ");
+    for(int i=0; i<keyFields.length; ++i) {
+      String column = keyColumnNames[i];
+      if (i > 0) {
+        orderBuilder.append(',');
+        seekBuilder.append(" OR ");
+      }
+      orderBuilder.append(column);
+
+      seekBuilder.append('(');
+      for(int j=0; j<i; ++j) {
+        seekBuilder.append(keyColumnNames[j]);
+        seekBuilder.append("=? AND ");
+      }
+      seekBuilder.append(column);
+      seekBuilder.append(">?)");
+    }
+    orderBuilder.append(dialect.getLimitClause());
+    firstPageSql = selectAllSql + orderBuilder;
+    nextPageSql = selectAllSql + seekBuilder + orderBuilder;
+
+    fetchAnySql = keyFields.length == 1 ? selectAllSql + " WHERE " + keyColumnNames[0] + "=ANY(?)" : null;
+
+    StringBuilder sqlBuilder = new StringBuilder();
+    StringBuilder placeHolders = new StringBuilder();
+    sqlBuilder.append("INSERT INTO ");
+    sqlBuilder.append(tableName);
+    sqlBuilder.append('(');
+    for(int i=0; i<fields.length; ++i) {
+      if (i > 0) {
+        sqlBuilder.append(',');
+        placeHolders.append(',');
+      }
+      sqlBuilder.append(columnNames[i]);
+      placeHolders.append('?');
+    }
+    sqlBuilder.append(") VALUES (");
+    sqlBuilder.append(placeHolders);
+    sqlBuilder.append(')');
+    insertValuesSql = sqlBuilder.toString();
+    insertSql = insertValuesSql + ";";
+
+    // The insert leaving out a single field key to be generated, only the
+    // integer keys are generated by the database (see Dialect.getKeyTypeName)
+    if (keyFields.length == 1 && (keyFields[0].getType() == DataType.INT || keyFields[0].getType() == DataType.LONG)) {
+      sqlBuilder.setLength(0);
+      placeHolders.setLength(0);
+      sqlBuilder.append("INSERT INTO ");
+      sqlBuilder.append(tableName);
+      sqlBuilder.append('(');
+      for(int i=0; i<fields.length; ++i) {
+        if (fields[i].isKey()) {
+          continue;
+        }
+        if (placeHolders.length() > 0) {
+          sqlBuilder.append(',');
+          placeHolders.append(',');
+        }
+        sqlBuilder.append(columnNames[i]);
+        placeHolders.append('?');
+      }
+      if (placeHolders.length() == 0) {
+        // Nothing but the key
+        sqlBuilder.setLength(sqlBuilder.length() - 1);
+        sqlBuilder.append(" DEFAULT VALUES");
+      } else {
+        sqlBuilder.append(") VALUES (");
+        sqlBuilder.append(placeHolders);
+        sqlBuilder.append(')');
+      }
+      sqlBuilder.append(dialect.getReturningClause(keyColumnNames));
+      generatedInsertSql = sqlBuilder.toString();
+    } else {
+      generatedInsertSql = null;
+    }
+  }
+
+  public ResourceMap<T> getMap() {
+    return map;
+  }
+
+  public String getTableName() {
+    return tableName;
+  }
+
+  public int getFieldsCount() {
+    return fields.length;
+  }
+
+  public FieldMap getField(int index) {
+    return fields[index];
+  }
+
+  public String getColumnName(int index) {
+    return columnNames[index];
+  }
+
+  public JDBCFieldMapper getMapper(int index) {
+    return mappers[index];
+  }
+
+  public int getKeyFieldsCount() {
+    return keyFields.length;
+  }
+
+  public FieldMap getKeyField(int index) {
+    return keyFields[index];
+  }
+
+  public JDBCFieldMapper getKeyMapper(int index) {
+    return keyMappers[index];
+  }
+
+  /**
+   * Retrieve the row mapper compiled for the given resource class, which is
+   * compiled on first use.
+   */
+  public JDBCRowMapper<T> getRowMapper(Class<?> resourceClass) {
+    JDBCRowMapper<T> mapper = rowMapper;
+    if (mapper == null || mapper.getResourceClass() != resourceClass) {
+      mapper = new JDBCRowMapper<>(this, resourceClass);
+      rowMapper = mapper;
+    }
+    return mapper;
+  }
+
+  public String getSelectAllSql() {
+    return selectAllSql;
+  }
+
+  public String getFetchSql() {
+    return fetchSql;
+  }
+
+  /**
+   * The INSERT of all the fields including the keys
+   */
+  public String getInsertSql() {
+    return insertSql;
+  }
+
+  /**
+   * The INSERT of all the fields but the key, whose value is generated by the
+   * database and is available through the generated keys. Available only for
+   * the single field keys.
+   */
+  public String getGeneratedInsertSql() {
+    return generatedInsertSql;
+  }
+
+  public String getDeleteSql() {
+    return deleteSql;
+  }
+
+  /**
+   * The SQL for the first page of the keyset pagination, the only
+   * parameter being the page size.
+   */
+  public String getFirstPageSql() {
+    return firstPageSql;
+  }
+
+  /**
+   * The SQL for the pages after a given key. The key values are to be bound
+   * in the order k1, k1, k2, k1, k2, k3... followed by the page size.
+   */
+  public String getNextPageSql() {
+    return nextPageSql;
+  }
+
+  /**
+   * The SQL for retrieving multiple records with a single array parameter
+   * holding all the keys. Available only for the single field keys.
+   */
+  public String getFetchAnySql() {
+    return fetchAnySql;
+  }
+
+  /**
+   * The maximum number of keys that can be retrieved by a single multi key
+   * fetch statement.
+   */
+  public int getMaxFetchManyKeys() {
+    if (keyFields.length == 0) {
+      throw new StoreException("Cannot fetch the records of " + map.getName() + " by key, it has no primary key");
+    }
+    return Integer.highestOneBit(Math.max(1, MAX_FETCH_MANY_PARAMETERS / keyFields.length));
+  }
+
+  /**
+   * Retrieve the SQL for fetching multiple records by their keys. The key
+   * count is rounded up to a power of two (the extra parameters are to be
+   * padded with a repeated key), to limit the number of distinct statements.
+   * The key values are to be bound key by key.
+   *
+   * @param count The number of keys, at most getMaxFetchManyKeys()
+   * @return The SQL for getFetchManySize(count) keys
+   */
+  public String getFetchManySql(int count) {
+    int size = getFetchManySize(count);
+    String sql = fetchManySqls.get(size);
+    if (sql == null) {
+      sql = buildFetchManySql(size);
+      fetchManySqls.putIfAbsent(size, sql);
+    }
+    return sql;
+  }
+
+  public int getFetchManySize(int count) {
+    return count <= 1 ? 1 : Integer.highestOneBit(count - 1) << 1;
+  }
+
+  private String buildFetchManySql(int size) {
+    StringBuilder sqlBuilder = new StringBuilder(selectAllSql);
+    sqlBuilder.append(" WHERE ");
+    if (keyFields.length == 1) {
+      sqlBuilder.append(keyColumnNames[0]);
+      sqlBuilder.append(" IN (");
+      for(int i=0; i<size; ++i) {
+        if (i > 0) {
+          sqlBuilder.append(',');
+        }
+        sqlBuilder.append('?');
+      }
+      sqlBuilder.append(')');
+    } else if (rowValues) {
+      // (k1,k2) IN ((?,?),(?,?)...)
+      sqlBuilder.append('(');
+      sqlBuilder.append(String.join(",", keyColumnNames));
+      sqlBuilder.append(") IN (");
+      for(int i=0; i<size; ++i) {
+        if (i > 0) {
+          sqlBuilder.append(',');
+        }
+        sqlBuilder.append('(');
+        for(int j=0; j<keyFields.length; ++j) {
+          if (j > 0) {
+            sqlBuilder.append(',');
+          }
+          sqlBuilder.append('?');
+        }
+        sqlBuilder.append(')');
+      }
+      sqlBuilder.append(')');
+    } else {
+      // (k1=? AND k2=?) OR (k1=? AND k2=?)...
+      for(int i=0; i<size; ++i) {
+        if (i > 0) {
+          sqlBuilder.append(" OR ");
+        }
+        sqlBuilder.append('(');
+        for(int j=0; j<keyFields.length; ++j) {
+          if (j > 0) {
+            sqlBuilder.append(" AND ");
+          }
+          sqlBuilder.append(keyColumnNames[j]);
+          sqlBuilder.append("=?");
+        }
+        sqlBuilder.append(')');
+      }
+    }
+    return sqlBuilder.toString();
+  }
+
+  /**
+   * Checks if the field at the given index is to be written by an UPDATE of
+   * the given node. The key fields and the fields not available in the node
+   * are never updated.
+   */
+  public boolean isUpdated(int index, ObjectNode node) {
+    FieldMap fieldMap = fields[index];
+    return !fieldMap.isKey() && node.has(fieldMap.getName());
+  }
+
+  /**
+   * Retrieve the UPDATE statement for the fields available in the given node.
+   * The statements are cached by the set of fields present, so the nodes with
+   * the same shape share the same SQL.
+   */
+  public String getUpdateSql(ObjectNode node) {
+    return getShapedSql(updateSqls, node, false);
+  }
+
+  /**
+   * Checks if the given node has any field to be written by an UPDATE.
+   */
+  public boolean hasUpdates(ObjectNode node) {
+    for(int i=0; i<fields.length; ++i) {
+      if (isUpdated(i, node)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Retrieve the INSERT ... ON CONFLICT DO UPDATE statement for the given
+   * node. All the fields are bound the same way as the insert statement,
+   * while only the fields available in the node are overwritten on an
+   * existing record. The statements are cached by the shape of the node.
+   */
+  public String getUpsertSql(ObjectNode node) {
+    return getShapedSql(upsertSqls, node, true);
+  }
+
+  /**
+   * Retrieve the UPDATE statement writing only the given fields, as needed
+   * by the dirty tracking. The statements are shared with the ones of
+   * {@link #getUpdateSql(ObjectNode)} for the same set of fields.
+   *
+   * @param updated The fields to be written, by their index in the plan
+   */
+  String getUpdateSql(boolean[] updated) {
+    return getShapedSql(updateSqls, i -> updated[i], false);
+  }
+
+  /**
+   * Retrieve the SELECT of all the records with only the columns of the given
+   * fields, along with the key and primary field columns identifying the
+   * records. The statements are cached by the set of fields selected.
+   */
+  String getProjectionSql(FieldMap[] projected) {
+    boolean[] selected = new boolean[fields.length];
+    for(FieldMap fieldMap : projected) {
+      int index = indexOf(fieldMap);
+      if (index < 0) {
+        throw new StoreException("The field " + fieldMap.getFullName() + " is not a column of " + map.getName());
+      }
+      selected[index] = true;
+    }
+    for(int i=0; i<fields.length; ++i) {
+      selected[i] |= fields[i].isKey() || fields[i] == map.getPrimaryField();
+    }
+
+    if (fields.length > MAX_MASK_FIELDS) {
+      return buildProjectionSql(selected);
+    }
+
+    long mask = 0;
+    for(int i=0; i<fields.length; ++i) {
+      if (selected[i]) {
+        mask |= 1L << i;
+      }
+    }
+
+    String sql = projectionSqls.get(mask);
+    if (sql == null) {
+      sql = buildProjectionSql(selected);
+      projectionSqls.putIfAbsent(mask, sql);
+    }
+    return sql;
+  }
+
+  private int indexOf(FieldMap fieldMap) {
+    for(int i=0; i<fields.length; ++i) {
+      if (fields[i] == fieldMap) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private String buildProjectionSql(boolean[] selected) {
+    StringBuilder sqlBuilder = new StringBuilder("SELECT ");
+    boolean first = true;
+    for(int i=0; i<fields.length; ++i) {
+      if (selected[i]) {
+        if (!first) {
+          sqlBuilder.append(',');
+        } else {
+          first = false;
+        }
+        sqlBuilder.append(columnNames[i]);
+      }
+    }
+    sqlBuilder.append(" FROM ");
+    sqlBuilder.append(tableName);
+    return sqlBuilder.toString();
+  }
+
+  private String getShapedSql(ConcurrentMap<Long, String> cache, ObjectNode node, boolean upsert) {
+    return getShapedSql(cache, i -> isUpdated(i, node), upsert);
+  }
+
+  private String getShapedSql(ConcurrentMap<Long, String> cache, IntPredicate updated, boolean upsert) {
+    if (fields.length > MAX_MASK_FIELDS) {
+      return upsert ? buildUpsertSql(updated) : buildUpdateSql(updated);
+    }
+
+    long mask = 0;
+    for(int i=0; i<fields.length; ++i) {
+      if (updated.test(i)) {
+        mask |= 1L << i;
+      }
+    }
+
+    String sql = cache.get(mask);
+    if (sql == null) {
+      final long fieldMask = mask;
+      IntPredicate masked = i -> (fieldMask & (1L << i)) != 0;
+      sql = upsert ? buildUpsertSql(masked) : buildUpdateSql(masked);
+      cache.putIfAbsent(mask, sql);
+    }
+    return sql;
+  }
+
+  private String buildUpdateSql(IntPredicate updated) {
+    StringBuilder sqlBuilder = new StringBuilder();
+    sqlBuilder.append("UPDATE ");
+    sqlBuilder.append(tableName);
+    sqlBuilder.append(" SET ");
+
+    boolean first = true;
+    for(int i=0; i<fields.length; ++i) {
+      if (!updated.test(i)) {
+        continue;
+      }
+
+      if (!first) {
+        sqlBuilder.append(',');
+      } else {
+        first = false;
+      }
+      sqlBuilder.append(columnNames[i]);
+      sqlBuilder.append("=?");
+    }
+
+    sqlBuilder.append(keyClause);
+    return sqlBuilder.toString();
+  }
+
+  private String buildUpsertSql(IntPredicate updated) {
+    List<String> updatedColumns = new ArrayList<>();
+    for(int i=0; i<fields.length; ++i) {
+      if (updated.test(i)) {
+        updatedColumns.add(columnNames[i]);
+      }
+    }
+
+    return dialect.getUpsertSql(insertValuesSql, keyColumnNames,
+            updatedColumns.toArray(new String[updatedColumns.size()]));
+  }
+}
@@ -0,0 +1,177 @@
+package com.sharingapples.sync.store.jdbc;
+
+import com.sharingapples.sync.resource.FieldMap;
+import com.sharingapples.sync.resource.Resource;
+import com.sharingapples.sync.store.StoreException;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Materializes the rows of a ResultSet into the resources of a ResourceMap.
+ * The mapper is compiled once per plan and resource class into flat arrays of
+ * the persistable fields, their JDBCFieldMappers and MethodHandle setters, so
+ * that mapping a row is a single loop without any per field type checks or
+ * lookups.
+ *
+ * The fields are set directly through their MethodHandle only when the java
+ * field takes the value of the mapper as is. The references and the fields
+ * needing a conversion go through FieldMap.set as before. The int and long
+ * java fields with a primitive mapper are read and set without boxing. A
+ * NULL column is not read as 0 in such a field, it is set through
+ * FieldMap.set like any other NULL.
+ */
+class JDBCRowMapper<T extends Resource> {
+  private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+
+  // The way each field is read and set
+  private static final byte FIELD_MAP = 0;
+  private static final byte OBJECT = 1;
+  private static final byte INT = 2;
+  private static final byte LONG = 3;
+
+  private final Class<?> resourceClass;
+  private final FieldMap[] fields;
+  private final JDBCFieldMapper[] mappers;
+  private final MethodHandle[] setters;
+  private final byte[] kinds;
+
+  JDBCRowMapper(JDBCResourcePlan<T> plan, Class<?> resourceClass) {
+    this.resourceClass = resourceClass;
+
+    int count = plan.getFieldsCount();
+    fields = new FieldMap[count];
+    mappers = new JDBCFieldMapper[count];
+    setters = new MethodHandle[count];
+    kinds = new byte[count];
+
+    MethodHandles.Lookup lookup = MethodHandles.lookup();
+    for(int i=0; i<count; ++i) {
+      fields[i] = plan.getField(i);
+      mappers[i] = plan.getMapper(i);
+
+      if (fields[i].getType().isReference() || mappers[i] == null) {
+        continue;
+      }
+
+      Field field = findField(resourceClass, fields[i].getName());
+      if (field == null || !isAssignable(field.getType(), mappers[i].getValueType())) {
+        continue;
+      }
+
+      try {
+        field.setAccessible(true);
+        MethodHandle setter = lookup.unreflectSetter(field);
+        byte kind = primitiveKind(field.getType(), mappers[i]);
+        if (kind == OBJECT) {
+          setter = setter.asType(SETTER_TYPE);
+        } else {
+          setter = setter.asType(MethodType.methodType(void.class, Object.class, field.getType()));
+        }
+        setters[i] = setter;
+        kinds[i] = kind;
+      } catch(IllegalAccessException | RuntimeException e) {
+        // Fallback to the FieldMap
+        setters[i] = null;
+        kinds[i] = FIELD_MAP;
+      }
+    }
+  }
+
+  private static Field findField(Class<?> clazz, String name) {
+    for(Class<?> c = clazz; c != null; c = c.getSuperclass()) {
+      try {
+        Field field = c.getDeclaredField(name);
+        int modifiers = field.getModifiers();
+        return Modifier.isStatic(modifiers) || Modifier.isFinal(modifiers) ? null : field;
+      } catch(NoSuchFieldException e) {
+        // Look into the super class
+      }
+    }
+    return null;
+  }
+
+  private static byte primitiveKind(Class<?> fieldType, JDBCFieldMapper mapper) {
+    if (fieldType == int.class && mapper instanceof JDBCFieldMapper.IntMapper) {
+      return INT;
+    } else if (fieldType == long.class && mapper instanceof JDBCFieldMapper.LongMapper) {
+      return LONG;
+    } else if (fieldType.isPrimitive()) {
+      // A primitive field with an object mapper, goes through the FieldMap on NULLs
+      return FIELD_MAP;
+    } else {
+      return OBJECT;
+    }
+  }
+
+  private static boolean isAssignable(Class<?> fieldType, Class<?> valueType) {
+    if (fieldType.isPrimitive()) {
+      return MethodType.methodType(fieldType).wrap().returnType() == valueType;
+    } else {
+      return fieldType.isAssignableFrom(valueType);
+    }
+  }
+
+  public Class<?> getResourceClass() {
+    return resourceClass;
+  }
+
+  /**
+   * Set all the persistable fields of the given resource from the current row
+   *
+   * @param columns The column index in the result set for each of the plan
+   *                fields, 0 for the fields not selected, which are left
+   *                untouched
+   */
+  void map(ResultSet rs, int[] columns, T res) {
+    for(int i=0; i<fields.length; ++i) {
+      if (columns[i] == 0) {
+        continue;
+      }
+
+      try {
+        switch(kinds[i]) {
+          case INT: {
+            int value = ((JDBCFieldMapper.IntMapper) mappers[i]).getInt(rs, columns[i]);
+            if (rs.wasNull()) {
+              fields[i].set(res, null);
+            } else {
+              setters[i].invokeExact((Object) res, value);
+            }
+            break;
+          }
+          case LONG: {
+            long value = ((JDBCFieldMapper.LongMapper) mappers[i]).getLong(rs, columns[i]);
+            if (rs.wasNull()) {
+              fields[i].set(res, null);
+            } else {
+              setters[i].invokeExact((Object) res, value);
+            }
+            break;
+          }
+          default:
+            Object value = mappers[i].getValue(rs, columns[i]);
+            if (kinds[i] == OBJECT && setters[i] != null) {
+              setters[i].invokeExact((Object) res, value);
+            } else if (setters[i] != null && value != null) {
+              // A primitive field, set directly unless NULL
+              setters[i].invoke((Object) res, value);
+            } else {
+              fields[i].set(res, value);
+            }
+        }
+      } catch(SQLException e) {
+        throw new StoreException("Could not read " + fields[i].getFullName(), e);
+      } catch(StoreException e) {
+        throw e;
+      } catch(Throwable e) {
+        throw new StoreException("Could not set " + fields[i].getFullName(), e);
+      }
+    }
+  }
+}
@@ -0,0 +1,11 @@
+package com.sharingapples.sync.store.jdbc;
+
+import com.sharingapples.sync.store.StoreException;
+
+/**
+ * A unit of work executed on an engine of a StoreJDBC
+ */
+@FunctionalInterface
+public interface JDBCSession<R> {
+  R execute(EngineJDBC engine) throws StoreException;
+}
@@ -0,0 +1,139 @@
+package com.sharingapples.sync.store.jdbc;
+
+import com.sharingapples.sync.store.Store;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A LRU cache of PreparedStatements for a single physical connection, keyed
+ * by the SQL text. The cache stays with the pooled connection, so the engines
+ * that borrow the same connection from the pool reuse the statements prepared
+ * by the earlier engines.
+ *
+ * A statement is removed from the cache while it is in use and put back when
+ * released, which allows the same SQL to be executed in a nested manner (a
+ * second statement is prepared in that case). The cache is not thread safe,
+ * a connection is used by only one engine at a time.
+ */
+class JDBCStatementCache {
+  private final Connection connection;
+  private final LongAdder hits;
+  private final LongAdder misses;
+
+  private final Map<String, PreparedStatement> idle;
+  private final Set<PreparedStatement> borrowed =
+          Collections.newSetFromMap(new IdentityHashMap<PreparedStatement, Boolean>());
+
+  JDBCStatementCache(Connection connection, final int size, LongAdder hits, LongAdder misses) {
+    this.connection = connection;
+    this.hits = hits;
+    this.misses = misses;
+    this.idle = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+        if (size() > size) {
+          closeQuietly(eldest.getValue());
+          return true;
+        }
+        return false;
+      }
+    };
+  }
+
+  /**
+   * Retrieve a statement for the given SQL, either from the cache or by
+   * preparing a new one on the connection. The statement must be given back
+   * with {@link #release(String, PreparedStatement)} once done.
+   *
+   * @param sql The SQL text of the statement
+   * @param autoGeneratedKeys Statement.RETURN_GENERATED_KEYS or
+   *                          Statement.NO_GENERATED_KEYS. The same SQL is
+   *                          always expected to be prepared with the same flag
+   */
+  PreparedStatement borrow(String sql, int autoGeneratedKeys) throws SQLException {
+    PreparedStatement stmt = idle.remove(sql);
+    if (stmt != null) {
+      hits.increment();
+    } else {
+      misses.increment();
+      stmt = connection.prepareStatement(sql, autoGeneratedKeys);
+    }
+
+    borrowed.add(stmt);
+    return stmt;
+  }
+
+  /**
+   * Give back a statement retrieved with borrow, making it available for the
+   * next execution of the same SQL.
+   */
+  void release(String sql, PreparedStatement stmt) {
+    if (!borrowed.remove(stmt)) {
+      return;
+    }
+
+    try {
+      stmt.clearParameters();
+      stmt.clearBatch();
+    } catch(SQLException e) {
+      // The statement is not reusable anymore
+      closeQuietly(stmt);
+      return;
+    }
+
+    PreparedStatement previous = idle.put(sql, stmt);
+    if (previous != null) {
+      closeQuietly(previous);
+    }
+  }
+
+  /**
+   * Close all the statements that were borrowed but never released, (for
+   * example a record set that was not iterated till the end).
+   */
+  void reclaim() {
+    if (borrowed.isEmpty()) {
+      return;
+    }
+
+    for(PreparedStatement stmt : new ArrayList<>(borrowed)) {
+      closeQuietly(stmt);
+    }
+    borrowed.clear();
+  }
+
+  /**
+   * Close all the statements, invoked when the physical connection is
+   * being destroyed by the pool.
+   */
+  void close() {
+    reclaim();
+    Iterator<PreparedStatement> it = idle.values().iterator();
+    while(it.hasNext()) {
+      closeQuietly(it.next());
+      it.remove();
+    }
+  }
+
+  int size() {
+    return idle.size();
+  }
+
+  private static void closeQuietly(PreparedStatement stmt) {
+    try {
+      stmt.close();
+    } catch(SQLException e) {
+      Store.LOGGER.warn("Error while closing cached statement - " + e.getMessage());
+    }
+  }
+}
@@ -0,0 +1,88 @@
+package com.sharingapples.sync.store.jdbc;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock free histogram of latencies in nanoseconds with power of two
+ * buckets, the bucket i counting the latencies in [2^(i-1), 2^i). The
+ * percentiles are therefore accurate within a factor of two, which is enough
+ * to tell the saturation apart from the normal operation at a negligible
+ * recording cost.
+ */
+public class LatencyHistogram {
+  private static final int BUCKETS = 64;
+
+  private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+  private final LongAdder count = new LongAdder();
+  private final LongAdder total = new LongAdder();
+  private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+  public void record(long nanos) {
+    if (nanos < 0) {
+      nanos = 0;
+    }
+
+    buckets.incrementAndGet(BUCKETS - Long.numberOfLeadingZeros(nanos));
+    count.increment();
+    total.add(nanos);
+    max.accumulate(nanos);
+  }
+
+  public long getCount() {
+    return count.sum();
+  }
+
+  public long getTotalNanos() {
+    return total.sum();
+  }
+
+  public long getMaxNanos() {
+    return max.get();
+  }
+
+  public double getMeanNanos() {
+    long n = count.sum();
+    return n == 0 ? 0 : (double) total.sum() / n;
+  }
+
+  /**
+   * Retrieve the upper bound of the bucket containing the given percentile
+   *
+   * @param percentile Between 0 and 100
+   */
+  public long getPercentileNanos(double percentile) {
+    long[] counts = getBucketCounts();
+    long n = 0;
+    for(long c : counts) {
+      n += c;
+    }
+    if (n == 0) {
+      return 0;
+    }
+
+    long rank = (long) Math.ceil(n * Math.min(100, Math.max(0, percentile)) / 100);
+    long cumulative = 0;
+    for(int i=0; i<counts.length; ++i) {
+      cumulative += counts[i];
+      if (cumulative >= rank && cumulative > 0) {
+        long upper = i == 0 ? 0 : (1L << i) - 1;
+        return Math.min(upper, getMaxNanos());
+      }
+    }
+    return getMaxNanos();
+  }
+
+  /**
+   * @return The count of each bucket, the bucket i counting the latencies
+   *         in [2^(i-1), 2^i) nanoseconds
+   */
+  public long[] getBucketCounts() {
+    long[] counts = new long[BUCKETS];
+    for(int i=0; i<BUCKETS; ++i) {
+      counts[i] = buckets.get(i);
+    }
+    return counts;
+  }
+}
@@ -0,0 +1,75 @@
+package com.sharingapples.sync.store.jdbc;
+
+import com.sharingapples.sync.resource.DataType;
+import com.sharingapples.sync.resource.ResourceMap;
+
+import java.sql.Connection;
+
+/**
+ * The PostgreSQL dialect. The generated keys are returned with a RETURNING
+ * clause of only the key columns (for single and batch inserts alike), the
+ * single field keys are SERIAL/BIGSERIAL columns and the multi key lookups
+ * use a single array parameter.
+ */
+class PostgresDialect implements Dialect {
+
+  @Override
+  public String getKeyTypeName(DataType type) {
+    if (type == DataType.INT) {
+      return "SERIAL";
+    } else if (type == DataType.LONG) {
+      return "BIGSERIAL";
+    } else {
+      return getTypeName(type);
+    }
+  }
+
+  @Override
+  public String getReturningClause(String[] keyColumnNames) {
+    return " RETURNING " + String.join(",", keyColumnNames);
+  }
+
+  @Override
+  public boolean supportsBatchGeneratedKeys() {
+    return true;
+  }
+
+  @Override
+  public boolean supportsRowValues() {
+    return true;
+  }
+
+  @Override
+  public boolean supportsUpsert(Connection connection) {
+    return true;
+  }
+
+  @Override
+  public String getLimitClause() {
+    return " LIMIT ?";
+  }
+
+  /**
+   * The queries are executed again with ANALYZE for the actual timings and
+   * buffer usage, the other statements are only planned.
+   */
+  @Override
+  public String getExplainSql(String sql, boolean query) {
+    return (query ? "EXPLAIN (ANALYZE, BUFFERS) " : "EXPLAIN ") + sql;
+  }
+
+  @Override
+  public String getArrayTypeName(DataType type) {
+    if (type.isReference()) {
+      return getArrayTypeName(((ResourceMap)type).getPrimaryField().getType());
+    } else if (type == DataType.INT) {
+      return "int4";
+    } else if (type == DataType.LONG) {
+      return "int8";
+    } else if (type == DataType.STRING) {
+      return "text";
+    } else {
+      return null;
+    }
+  }
+}
@@ -0,0 +1,56 @@
+package com.sharingapples.sync.store.jdbc;
+
+import com.sharingapples.sync.resource.DataType;
+import com.sharingapples.sync.resource.ResourceMap;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.SQLException;
+
+/**
+ * The SQLite dialect. All the integers are stored as INTEGER, so that a
+ * single field INTEGER primary key becomes the rowid of the table and is
+ * generated on insert. The UPSERT syntax is used where the sqlite library
+ * is recent enough (3.24.0).
+ */
+class SqliteDialect implements Dialect {
+  private static final int UPSERT_MAJOR_VERSION = 3;
+  private static final int UPSERT_MINOR_VERSION = 24;
+
+  private volatile Boolean upsert;
+
+  @Override
+  public String getTypeName(DataType type) {
+    if (type == DataType.INT || type == DataType.LONG) {
+      return "INTEGER";
+    } else if (type.isReference()) {
+      return getTypeName(((ResourceMap) type).getPrimaryField().getType());
+    } else {
+      return Dialect.super.getTypeName(type);
+    }
+  }
+
+  @Override
+  public boolean supportsUpsert(Connection connection) throws SQLException {
+    Boolean supported = upsert;
+    if (supported == null) {
+      DatabaseMetaData metaData = connection.getMetaData();
+      int major = metaData.getDatabaseMajorVersion();
+      int minor = metaData.getDatabaseMinorVersion();
+      supported = major > UPSERT_MAJOR_VERSION
+              || (major == UPSERT_MAJOR_VERSION && minor >= UPSERT_MINOR_VERSION);
+      upsert = supported;
+    }
+    return supported;
+  }
+
+  @Override
+  public String getLimitClause() {
+    return " LIMIT ?";
+  }
+
+  @Override
+  public String getExplainSql(String sql, boolean query) {
+    return "EXPLAIN QUERY PLAN " + sql;
+  }
+}
@@ -0,0 +1,164 @@
+package com.sharingapples.sync.store.jdbc;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The pragmas applied by a StoreSqlite to every connection of its pools when
+ * the connection is created, the size of its read pool, and whether its
+ * writes go through a single connection. A pragma left null keeps the
+ * sqlite default.
+ *
+ * The {@link #performance()} profile uses the write ahead log, so that the
+ * readers do not block the writer, and syncs the file only at the WAL
+ * checkpoints instead of on every commit. With synchronous=NORMAL a power
+ * loss may roll back the last commits, the database is never corrupted.
+ */
+public class SqliteProfile {
+  private String journalMode;
+  private String synchronous;
+  private Long mmapSize;
+  private Integer cacheSize;
+  private String tempStore;
+  private Integer busyTimeout;
+  private int readConnections;
+  private boolean singleWriter;
+
+  /**
+   * The profile for the write heavy stores, WAL journal with NORMAL sync,
+   * 256MB memory mapped I/O, 64MB page cache, temporary tables in memory and
+   * 5 seconds to wait for a lock, a single writer connection and a read only
+   * connection per processor.
+   */
+  public static SqliteProfile performance() {
+    SqliteProfile profile = new SqliteProfile();
+    profile.setJournalMode("WAL");
+    profile.setSynchronous("NORMAL");
+    profile.setMmapSize(256L * 1024 * 1024);
+    profile.setCacheSize(-64 * 1024);
+    profile.setTempStore("MEMORY");
+    profile.setBusyTimeout(5000);
+    profile.setReadConnections(Runtime.getRuntime().availableProcessors());
+    profile.setSingleWriter(true);
+    return profile;
+  }
+
+  public String getJournalMode() {
+    return journalMode;
+  }
+
+  /**
+   * DELETE, TRUNCATE, PERSIST, MEMORY, WAL or OFF
+   */
+  public void setJournalMode(String journalMode) {
+    this.journalMode = journalMode;
+  }
+
+  public String getSynchronous() {
+    return synchronous;
+  }
+
+  /**
+   * OFF, NORMAL, FULL or EXTRA
+   */
+  public void setSynchronous(String synchronous) {
+    this.synchronous = synchronous;
+  }
+
+  public Long getMmapSize() {
+    return mmapSize;
+  }
+
+  /**
+   * The maximum number of bytes of the database file accessed through
+   * memory mapped I/O, 0 to disable.
+   */
+  public void setMmapSize(Long mmapSize) {
+    this.mmapSize = mmapSize;
+  }
+
+  public Integer getCacheSize() {
+    return cacheSize;
+  }
+
+  /**
+   * The page cache size, a positive value in pages or a negative value in
+   * KiB.
+   */
+  public void setCacheSize(Integer cacheSize) {
+    this.cacheSize = cacheSize;
+  }
+
+  public String getTempStore() {
+    return tempStore;
+  }
+
+  /**
+   * DEFAULT, FILE or MEMORY
+   */
+  public void setTempStore(String tempStore) {
+    this.tempStore = tempStore;
+  }
+
+  public Integer getBusyTimeout() {
+    return busyTimeout;
+  }
+
+  /**
+   * The milliseconds to wait for a locked database before failing
+   */
+  public void setBusyTimeout(Integer busyTimeout) {
+    this.busyTimeout = busyTimeout;
+  }
+
+  public int getReadConnections() {
+    return readConnections;
+  }
+
+  /**
+   * The number of read only connections for the sessions executed with
+   * StoreJDBC.executeRead, 0 to run them on the writer connection. The
+   * readers run in parallel with the writer in the WAL journal mode only.
+   */
+  public void setReadConnections(int readConnections) {
+    if (readConnections < 0) {
+      throw new IllegalArgumentException("Read connections cannot be negative");
+    }
+    this.readConnections = readConnections;
+  }
+
+  public boolean isSingleWriter() {
+    return singleWriter;
+  }
+
+  /**
+   * Run the sessions of the store one at a time on a single connection, in
+   * their order of arrival, instead of failing with SQLITE_BUSY when two of
+   * them write at the same time. The reads then go to the read connections,
+   * or wait for the writer when there are none.
+   */
+  public void setSingleWriter(boolean singleWriter) {
+    this.singleWriter = singleWriter;
+  }
+
+  /**
+   * The PRAGMA statements of the profile, in the order to be executed
+   */
+  List<String> getPragmas() {
+    List<String> pragmas = new ArrayList<>();
+    // The busy timeout first, switching the journal mode takes a lock
+    addPragma(pragmas, "busy_timeout", busyTimeout);
+    addPragma(pragmas, "journal_mode", journalMode);
+    addPragma(pragmas, "synchronous", synchronous);
+    addPragma(pragmas, "mmap_size", mmapSize);
+    addPragma(pragmas, "cache_size", cacheSize);
+    addPragma(pragmas, "temp_store", tempStore);
+    return pragmas;
+  }
+
+  private static void addPragma(List<String> pragmas, String name, Object value) {
+    if (value != null) {
+      pragmas.add("PRAGMA " + name + "=" + value);
+    }
+  }
+}
@@ -1,21 +1,34 @@
 package com.sharingapples.sync.store.jdbc;
 
 import com.sharingapples.sync.resource.DataType;
+import com.sharingapples.sync.resource.FieldMap;
 import com.sharingapples.sync.resource.Registrar;
+import com.sharingapples.sync.resource.Resource;
 import com.sharingapples.sync.resource.ResourceMap;
 import com.sharingapples.sync.store.Engine;
 import com.sharingapples.sync.store.Store;
 import com.sharingapples.sync.store.StoreException;
 import org.apache.commons.dbcp2.*;
-import org.apache.commons.pool2.ObjectPool;
+import org.apache.commons.pool2.PooledObject;
 import org.apache.commons.pool2.impl.GenericObjectPool;
 
-import javax.sql.DataSource;
+import java.sql.Connection;
 import java.sql.SQLException;
+import java.sql.Savepoint;
 import java.time.ZoneId;
 import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Created by ranjan on 12/12/15.
@@ -23,11 +36,72 @@ import java.util.Properties;
 public class StoreJDBC extends Store {
   public static ZoneId SYSTEM_TZ = ZoneId.of("UTC");
 
-  private DataSource dataSource;
+  public static final int DEFAULT_STATEMENT_CACHE_SIZE = 64;
+  public static final int DEFAULT_BATCH_SIZE = 500;
+  public static final int DEFAULT_FETCH_SIZE = 1000;
+  public static final int DEFAULT_MAX_PENDING_SESSIONS = 1000;
+
+  private final Dialect dialect;
+  private final JDBCConnectionPool pool;
+
+  // Set when the main pool has a single connection, in which case the open
+  // engine of each thread on that connection is tracked, for the sessions
+  // nested within it to run on the same connection
+  private final boolean singleWriter;
+  private final ThreadLocal<EngineJDBC> writers = new ThreadLocal<>();
+  private volatile JDBCConnectionPool readPool;
+  private volatile JDBCGroupCommit groupCommit;
+  private final Object groupCommitLock = new Object();
   private Map<DataType, JDBCFieldMapper> mappedJDBCFieldTypes = new HashMap<>();
+  private final ConcurrentMap<ResourceMap, JDBCResourcePlan> plans = new ConcurrentHashMap<>();
+  private final ConcurrentMap<ResourceMap, JDBCRelation[]> relations = new ConcurrentHashMap<>();
+
+  // The statement caches attached to the physical connections of the pool
+  private final Map<Connection, JDBCStatementCache> statementCaches = new IdentityHashMap<>();
+  private final LongAdder statementCacheHits = new LongAdder();
+  private final LongAdder statementCacheMisses = new LongAdder();
+  private volatile int statementCacheSize = DEFAULT_STATEMENT_CACHE_SIZE;
+  private volatile int batchSize = DEFAULT_BATCH_SIZE;
+  private volatile int fetchSize = DEFAULT_FETCH_SIZE;
+  private volatile JDBCMetricsListener metricsListener;
+  private volatile long slowStatementThreshold;
+  private volatile long slowStatementExplainInterval;
+  private final AtomicLong lastExplain = new AtomicLong();
+  private volatile JDBCResourceCache resourceCache;
+  private volatile boolean dirtyTracking;
+  private volatile int maxPendingSessions = DEFAULT_MAX_PENDING_SESSIONS;
+  private JDBCAsyncExecutor asyncExecutor;
 
   public StoreJDBC(Registrar registrar, String driverClass, String connUrl, Properties connProps) throws StoreException {
+    this(registrar, Dialect.GENERIC, driverClass, connUrl, connProps);
+  }
+
+  public StoreJDBC(Registrar registrar, Dialect dialect, String driverClass, String connUrl, Properties connProps)
+          throws StoreException {
+    this(registrar, dialect, driverClass, connUrl, connProps, null);
+  }
+
+  /**
+   * @param connectionInitSqls The statements executed once on every physical
+   *                           connection when it is created by the pool, may
+   *                           be null
+   */
+  public StoreJDBC(Registrar registrar, Dialect dialect, String driverClass, String connUrl, Properties connProps,
+                   Collection<String> connectionInitSqls) throws StoreException {
+    this(registrar, dialect, driverClass, connUrl, connProps, connectionInitSqls, new JDBCPoolConfig());
+  }
+
+  /**
+   * @param connectionInitSqls The statements executed once on every physical
+   *                           connection when it is created by the pool, may
+   *                           be null
+   * @param poolConfig The configuration of the connection pool
+   */
+  public StoreJDBC(Registrar registrar, Dialect dialect, String driverClass, String connUrl, Properties connProps,
+                   Collection<String> connectionInitSqls, JDBCPoolConfig poolConfig) throws StoreException {
     super(registrar);
+    this.dialect = dialect;
+    this.statementCacheSize = poolConfig.getStatementCacheSize();
 
     // Initialize the driver
     try {
@@ -38,22 +112,74 @@ public class StoreJDBC extends Store {
 
 
     // Create Connection Pool Using Apache DBCP2
-    ConnectionFactory connectionFactory = new DriverManagerConnectionFactory(connUrl, connProps);
-    PoolableConnectionFactory poolableConnectionFactory =
-            new PoolableConnectionFactory(connectionFactory, null);
-    ObjectPool<PoolableConnection> connectionPool = 
-            new GenericObjectPool<>(poolableConnectionFactory);
-    poolableConnectionFactory.setPool(connectionPool);
-    dataSource = new PoolingDataSource<>(connectionPool);
+    pool = createPool(connUrl, connProps, connectionInitSqls, poolConfig);
+    singleWriter = pool.getMetrics().getMaxTotal() == 1;
 
 
     // Register all the field mappers as well
     mappedJDBCFieldTypes.put(DataType.INT, JDBCFieldMapper.INT);
+    mappedJDBCFieldTypes.put(DataType.LONG, JDBCFieldMapper.LONG);
     mappedJDBCFieldTypes.put(DataType.STRING, JDBCFieldMapper.STRING);
     mappedJDBCFieldTypes.put(DataType.DATE, JDBCFieldMapper.DATE);
 
   }
 
+  /**
+   * Create a DBCP2 connection pool whose connections carry the statement
+   * caches of this store.
+   *
+   * @param connectionInitSqls The statements executed once on every physical
+   *                           connection when it is created, may be null
+   * @param config The configuration of the pool
+   */
+  final JDBCConnectionPool createPool(String connUrl, Properties connProps,
+                                      Collection<String> connectionInitSqls, JDBCPoolConfig config) {
+    ConnectionFactory connectionFactory = new DriverManagerConnectionFactory(connUrl, connProps);
+    PoolableConnectionFactory poolableConnectionFactory =
+            new PoolableConnectionFactory(connectionFactory, null) {
+              @Override
+              public void destroyObject(PooledObject<PoolableConnection> p) throws Exception {
+                discardStatementCache(p.getObject().getInnermostDelegate());
+                super.destroyObject(p);
+              }
+            };
+    if (connectionInitSqls != null) {
+      poolableConnectionFactory.setConnectionInitSql(connectionInitSqls);
+    }
+    poolableConnectionFactory.setValidationQuery(config.getValidationQuery());
+    poolableConnectionFactory.setValidationQueryTimeout(config.getValidationQueryTimeout());
+
+    GenericObjectPool<PoolableConnection> connectionPool =
+            new GenericObjectPool<>(poolableConnectionFactory, config.toPoolConfig());
+    poolableConnectionFactory.setPool(connectionPool);
+    return new JDBCConnectionPool(connectionPool);
+  }
+
+  /**
+   * Set a separate pool for the read only sessions executed with
+   * {@link #executeRead(JDBCSession)}, the main pool then serves the writes
+   * only.
+   */
+  void setReadPool(JDBCConnectionPool readPool) {
+    this.readPool = readPool;
+  }
+
+  /**
+   * @return The live metrics of the main connection pool
+   */
+  public JDBCPoolMetrics getPoolMetrics() {
+    return pool.getMetrics();
+  }
+
+  /**
+   * @return The live metrics of the read pool, or null if the store does not
+   *         have a separate read pool
+   */
+  public JDBCPoolMetrics getReadPoolMetrics() {
+    JDBCConnectionPool read = readPool;
+    return read == null ? null : read.getMetrics();
+  }
+
   public JDBCFieldMapper getJDBCFieldType(DataType type) {
     if (type.isReference()) {
       return getJDBCFieldType(((ResourceMap)type).getPrimaryField().getType());
@@ -64,15 +190,495 @@ public class StoreJDBC extends Store {
     }
   }
 
+  public Dialect getDialect() {
+    return dialect;
+  }
+
+  protected String quoteSystemIdentifier(String identifier) {
+    return dialect.quoteIdentifier(identifier);
+  }
+
+  /**
+   * Retrieve the precomputed SQL plan for the given ResourceMap. The plan is
+   * built on first use and shared by all the engines of this store.
+   */
+  @SuppressWarnings("unchecked")
+  <T extends Resource> JDBCResourcePlan<T> getPlan(ResourceMap<T> map) {
+    JDBCResourcePlan<T> plan = plans.get(map);
+    if (plan == null) {
+      plan = new JDBCResourcePlan<>(this, map);
+      JDBCResourcePlan<T> existing = plans.putIfAbsent(map, plan);
+      if (existing != null) {
+        plan = existing;
+      }
+    }
+    return plan;
+  }
+
+  /**
+   * Set the number of prepared statements cached on each pooled connection.
+   * A size of 0 disables the cache. The change applies to the connections
+   * that do not have a cache yet.
+   */
+  public void setStatementCacheSize(int statementCacheSize) {
+    this.statementCacheSize = statementCacheSize;
+  }
+
+  public int getStatementCacheSize() {
+    return statementCacheSize;
+  }
+
+  /**
+   * @return The number of statements that were reused from the cache
+   */
+  public long getStatementCacheHits() {
+    return statementCacheHits.sum();
+  }
+
+  /**
+   * @return The number of statements that had to be prepared because they
+   *         were not available in the cache
+   */
+  public long getStatementCacheMisses() {
+    return statementCacheMisses.sum();
+  }
+
+  /**
+   * Set the maximum number of records sent in a single JDBC batch by
+   * {@link EngineJDBC#insertAll} and {@link EngineJDBC#updateAll}.
+   */
+  public void setBatchSize(int batchSize) {
+    if (batchSize < 1) {
+      throw new IllegalArgumentException("Batch size must be at least 1");
+    }
+    this.batchSize = batchSize;
+  }
+
+  public int getBatchSize() {
+    return batchSize;
+  }
+
+  /**
+   * Set the number of rows retrieved per round trip by
+   * {@link EngineJDBC#fetchAll(ResourceMap)}. A value of 0 leaves it to the
+   * driver default.
+   */
+  public void setFetchSize(int fetchSize) {
+    if (fetchSize < 0) {
+      throw new IllegalArgumentException("Fetch size cannot be negative");
+    }
+    this.fetchSize = fetchSize;
+  }
+
+  public int getFetchSize() {
+    return fetchSize;
+  }
+
+  /**
+   * Set the listener receiving the timings of the statements executed by
+   * the engines started afterwards, null (the default) to disable the
+   * instrumentation.
+   */
+  public void setMetricsListener(JDBCMetricsListener metricsListener) {
+    this.metricsListener = metricsListener;
+  }
+
+  public JDBCMetricsListener getMetricsListener() {
+    return metricsListener;
+  }
+
+  /**
+   * Start collecting the metrics of the store with a {@link JDBCMetrics}
+   * exported through JMX under the given name.
+   */
+  public JDBCMetrics enableMetrics(String name) throws StoreException {
+    JDBCMetrics metrics = new JDBCMetrics();
+    metrics.register(name);
+    setMetricsListener(metrics);
+    return metrics;
+  }
+
+  /**
+   * Log the statements of the engines started afterwards that take longer
+   * than the given threshold through Store.LOGGER, along with their bound
+   * values and the number of records written. A threshold of 0 (the
+   * default) disables the log.
+   */
+  public void setSlowStatementThreshold(long threshold, TimeUnit unit) {
+    if (threshold < 0) {
+      throw new IllegalArgumentException("Slow statement threshold cannot be negative");
+    }
+    this.slowStatementThreshold = unit.toNanos(threshold);
+  }
+
+  public long getSlowStatementThreshold(TimeUnit unit) {
+    return unit.convert(slowStatementThreshold, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Append the execution plan of the slow statements to the log, see
+   * {@link Dialect#getExplainSql(String, boolean)}. At most one statement is
+   * explained per interval, so the overhead stays bounded even when all the
+   * statements turn slow. An interval of 0 (the default) disables the plans.
+   */
+  public void setSlowStatementExplainInterval(long interval, TimeUnit unit) {
+    if (interval < 0) {
+      throw new IllegalArgumentException("Explain interval cannot be negative");
+    }
+    this.slowStatementExplainInterval = unit.toNanos(interval);
+  }
+
+  /**
+   * @return true if a slow statement may be explained now, in which case
+   *         the next one has to wait for the explain interval
+   */
+  boolean tryExplain() {
+    long interval = slowStatementExplainInterval;
+    if (interval <= 0) {
+      return false;
+    }
+
+    long now = System.nanoTime();
+    long last = lastExplain.get();
+    return (last == 0 || now - last >= interval) && lastExplain.compareAndSet(last, now);
+  }
+
+  /**
+   * Cache the records fetched by key with {@link EngineJDBC#fetch} in a
+   * second level cache shared by the engines started afterwards, so the hot
+   * lookups do not cost a round trip. The records are invalidated as soon
+   * as the updates and deletes of any engine of the store are committed,
+   * the changes made to the database by other means are seen only once the
+   * records expire.
+   *
+   * @param maximumSize The maximum number of records, the least recently
+   *                    used records are evicted beyond it
+   * @param ttl The time after which a cached record is fetched again
+   */
+  public void enableResourceCache(int maximumSize, long ttl, TimeUnit unit) {
+    if (maximumSize < 1) {
+      throw new IllegalArgumentException("Cache size must be at least 1");
+    }
+    this.resourceCache = new JDBCResourceCache(maximumSize, unit.toNanos(ttl));
+  }
+
+  public void disableResourceCache() {
+    this.resourceCache = null;
+  }
+
+  JDBCResourceCache getResourceCache() {
+    return resourceCache;
+  }
+
+  /**
+   * @return The statistics of the resource cache, or null if the cache is
+   *         not enabled
+   */
+  public JDBCCacheStats getResourceCacheStats() {
+    JDBCResourceCache cache = resourceCache;
+    return cache == null ? null : cache.getStats();
+  }
+
+  /**
+   * Keep the state of the records read by the engines started afterwards,
+   * so that {@link EngineJDBC#update} writes only the fields that changed
+   * since they were read, and skips the statement when nothing changed. The
+   * state is kept for the session only, at the cost of a copy of every
+   * record read.
+   */
+  public void setDirtyTracking(boolean dirtyTracking) {
+    this.dirtyTracking = dirtyTracking;
+  }
+
+  public boolean isDirtyTracking() {
+    return dirtyTracking;
+  }
+
+  JDBCStatementCache getStatementCache(Connection connection) {
+    Connection physical = ((DelegatingConnection<?>)connection).getInnermostDelegate();
+    synchronized (statementCaches) {
+      JDBCStatementCache cache = statementCaches.get(physical);
+      if (cache == null) {
+        int size = statementCacheSize;
+        if (size <= 0) {
+          return null;
+        }
+
+        cache = new JDBCStatementCache(physical, size, statementCacheHits, statementCacheMisses);
+        statementCaches.put(physical, cache);
+      }
+      return cache;
+    }
+  }
+
+  private void discardStatementCache(Connection physical) {
+    JDBCStatementCache cache;
+    synchronized (statementCaches) {
+      cache = statementCaches.remove(physical);
+    }
+
+    if (cache != null) {
+      cache.close();
+    }
+  }
+
+  /**
+   * Register the Many relations of the given resources, which are needed for
+   * saving their children. The relations are registered along with the
+   * tables by {@link EngineJDBC#createTable(Class)}, this is for the
+   * processes opening an existing database.
+   */
+  @SafeVarargs
+  public final void registerResources(Class<? extends Resource>... classes) {
+    for(Class<? extends Resource> clazz : classes) {
+      registerRelations(getRegistrar().getResourceMap(clazz), clazz);
+    }
+  }
+
+  /**
+   * Resolve the join tables for all the Many fields of the given map. The
+   * relations are resolved from the resource class (the ResourceMap does not
+   * know the type of the children), which is registered by
+   * {@link EngineJDBC#createTable(Class)}, {@link EngineJDBC#loadMany} and
+   * {@link #registerResources}.
+   */
+  <T extends Resource> JDBCRelation[] registerRelations(ResourceMap<T> map, Class<?> clazz) {
+    JDBCRelation[] existing = relations.get(map);
+    if (existing != null) {
+      return existing;
+    }
+
+    JDBCResourcePlan<T> plan = getPlan(map);
+    List<JDBCRelation> list = new ArrayList<>();
+    for(int i=0; i<map.getFieldsCount(); ++i) {
+      FieldMap fieldMap = map.getFieldMap(i);
+      if (fieldMap.getType().isMany() && !fieldMap.isTransient()) {
+        list.add(JDBCRelation.resolve(this, clazz, plan, fieldMap));
+      }
+    }
+
+    JDBCRelation[] resolved = list.toArray(new JDBCRelation[list.size()]);
+    existing = relations.putIfAbsent(map, resolved);
+    return existing == null ? resolved : existing;
+  }
+
+  /**
+   * @return The Many relations of the given map, or null if the relations
+   *         of the map have not been registered
+   */
+  JDBCRelation[] getRelations(ResourceMap<?> map) {
+    return relations.get(map);
+  }
+
+  /**
+   * Create the engine for a connection borrowed from the pool, the stores
+   * with their own engine override this method.
+   */
+  EngineJDBC createEngine(Connection connection, JDBCStatementCache statementCache) {
+    return new EngineJDBC(this, connection, statementCache);
+  }
+
   @Override
   protected EngineJDBC startEngine() {
+    JDBCGroupCommit group = groupCommit;
+    if (group != null) {
+      Savepoint savepoint = group.begin();
+      Connection connection = group.getConnection();
+      EngineJDBC engine = createEngine(connection, getStatementCache(connection));
+      engine.joinGroupCommit(group, savepoint);
+      return engine;
+    }
+
+    if (!singleWriter) {
+      return startEngine(pool);
+    }
+
+    // A session nested in another session of the thread would wait forever
+    // for the only connection, it runs within a savepoint of the outer one
+    EngineJDBC writer = writers.get();
+    if (writer != null) {
+      return nest(writer);
+    }
+
+    EngineJDBC engine = startEngine(pool);
+    writers.set(engine);
+    return engine;
+  }
+
+  private EngineJDBC nest(EngineJDBC outer) {
+    Connection connection = outer.getConnection();
+    Savepoint savepoint;
+    try {
+      savepoint = connection.setSavepoint();
+    } catch(SQLException e) {
+      throw new StoreException("Could not start nested session", e);
+    }
+
+    EngineJDBC engine = createEngine(connection, getStatementCache(connection));
+    engine.nestIn(outer, savepoint);
+    return engine;
+  }
+
+  /**
+   * Invoked by an engine giving back its connection to the pool
+   */
+  void releaseWriter(EngineJDBC engine) {
+    if (singleWriter && writers.get() == engine) {
+      writers.remove();
+    }
+  }
+
+  /**
+   * Coalesce the commits of the concurrent sessions into a single
+   * transaction committed once per the given latency window, trading a
+   * little latency for fewer fsyncs. The sessions then run one at a time
+   * on a connection dedicated to the group commit, and each commit returns
+   * only after the shared transaction has been committed.
+   *
+   * When the main pool has a single connection, the group commit takes it
+   * over and all the sessions, including the ones of executeRead without a
+   * read pool, go through the group. It must then not be enabled from
+   * within a session, which holds that connection.
+   */
+  public void enableGroupCommit(long window, TimeUnit unit) throws StoreException {
+    if (groupCommit != null) {
+      throw new StoreException("Group commit is already enabled");
+    } else if (singleWriter && writers.get() != null) {
+      throw new StoreException("Group commit cannot be enabled within a session holding the only connection");
+    }
+
+    // Borrowed outside the lock, the pool may have to wait for a session
+    Connection connection;
+    try {
+      connection = pool.getConnection();
+      connection.setAutoCommit(false);
+    } catch(SQLException e) {
+      throw new StoreException("Could not start group commit", e);
+    }
+
+    JDBCGroupCommit group = new JDBCGroupCommit(connection, window, unit);
+    synchronized (groupCommitLock) {
+      if (groupCommit == null) {
+        group.start();
+        groupCommit = group;
+        return;
+      }
+    }
+
+    try {
+      connection.close();
+    } catch(SQLException e) {
+      Store.LOGGER.warn("Error while closing group commit connection - " + e.getMessage());
+    }
+    throw new StoreException("Group commit is already enabled");
+  }
+
+  /**
+   * Commit the pending sessions and go back to a transaction per session
+   */
+  public void disableGroupCommit() {
+    JDBCGroupCommit group;
+    synchronized (groupCommitLock) {
+      group = groupCommit;
+      groupCommit = null;
+    }
+
+    if (group != null) {
+      group.stop();
+    }
+  }
+
+  public boolean isGroupCommitEnabled() {
+    return groupCommit != null;
+  }
+
+  private EngineJDBC startEngine(JDBCConnectionPool source) {
     try {
-      return new EngineJDBC(this, dataSource.getConnection());
+      Connection connection = source.getConnection();
+      return createEngine(connection, getStatementCache(connection));
     } catch(SQLException e) {
       throw new StoreException("Could not start JDBC Engine", e);
     }
   }
 
+  /**
+   * Execute a read only session on a connection of the read pool, when the
+   * store has one, so the reads run in parallel without waiting for the
+   * writer. The session is never committed. Without a read pool, a store
+   * with a single connection runs the session like the writes, nested in
+   * the open session of the thread if any.
+   */
+  public <R> R executeRead(JDBCSession<R> session) throws StoreException {
+    JDBCConnectionPool read = readPool;
+    try (EngineJDBC engine = read == null && singleWriter ? startEngine() : startEngine(read == null ? pool : read)) {
+      return session.execute(engine);
+    }
+  }
+
+  /**
+   * Execute the session asynchronously, committing it the same way as
+   * {@link #execute}. The sessions run at most as many at a time as the
+   * connections of the pool, the others waiting in a queue of
+   * {@link #getMaxPendingSessions()} sessions. Beyond that the returned
+   * future fails right away with a StoreException, so the callers can shed
+   * the load instead of blocking.
+   */
+  @SuppressWarnings("unchecked")
+  public <R> CompletableFuture<R> executeAsync(JDBCSession<R> session) {
+    return getAsyncExecutor().submit(() -> (R) execute(engine -> session.execute((EngineJDBC) engine)));
+  }
+
+  private synchronized JDBCAsyncExecutor getAsyncExecutor() {
+    if (asyncExecutor == null) {
+      int concurrency = pool.getMetrics().getMaxTotal();
+      if (concurrency <= 0) {
+        // The pool is not bounded
+        concurrency = Runtime.getRuntime().availableProcessors();
+      }
+      asyncExecutor = new JDBCAsyncExecutor(concurrency, maxPendingSessions);
+    }
+    return asyncExecutor;
+  }
+
+  /**
+   * Set the number of sessions of {@link #executeAsync} waiting to be
+   * executed beyond which the new sessions are rejected. Takes effect on
+   * the first executeAsync, or the first one after shutdownAsync.
+   */
+  public void setMaxPendingSessions(int maxPendingSessions) {
+    if (maxPendingSessions < 0) {
+      throw new IllegalArgumentException("Max pending sessions cannot be negative");
+    }
+    this.maxPendingSessions = maxPendingSessions;
+  }
+
+  public int getMaxPendingSessions() {
+    return maxPendingSessions;
+  }
+
+  /**
+   * @return The number of sessions of executeAsync running or waiting
+   */
+  public synchronized int getAsyncSessions() {
+    return asyncExecutor == null ? 0 : asyncExecutor.getAdmitted();
+  }
+
+  /**
+   * Reject the new sessions of executeAsync and wait for the admitted ones
+   * to complete, up to the given timeout. A later executeAsync starts over.
+   */
+  public void shutdownAsync(long timeout, TimeUnit unit) throws InterruptedException {
+    JDBCAsyncExecutor executor;
+    synchronized (this) {
+      executor = asyncExecutor;
+      asyncExecutor = null;
+    }
+
+    if (executor != null) {
+      executor.shutdown(timeout, unit);
+    }
+  }
+
   @Override
   public String getVersion() {
     throw new UnsupportedOperationException("Versioning not implemented");
@@ -3,6 +3,7 @@ package com.sharingapples.sync.store.jdbc;
 import com.sharingapples.sync.resource.Registrar;
 import com.sharingapples.sync.store.StoreException;
 
+import java.sql.Connection;
 import java.util.Properties;
 
 /**
@@ -12,12 +13,26 @@ public class StorePostgres extends StoreJDBC {
   public StorePostgres(Registrar registrar, String host, int port, String database,
                        final String username, final String password)
           throws StoreException {
-    super(registrar, "org.postgresql.Driver",
+    this(registrar, host, port, database, username, password, new JDBCPoolConfig());
+  }
+
+  public StorePostgres(Registrar registrar, String host, int port, String database,
+                       final String username, final String password, JDBCPoolConfig poolConfig)
+          throws StoreException {
+    super(registrar, new PostgresDialect(), "org.postgresql.Driver",
             "jdbc:postgresql://" + host + ":" + port + "/" + database,
             new Properties() {{
               this.setProperty("user", username);
               this.setProperty("password", password);
-            }}
+              // Rewrite the batched inserts into multi-row VALUES
+              this.setProperty("reWriteBatchedInserts", "true");
+            }},
+            null, poolConfig
     );
   }
+
+  @Override
+  EngineJDBC createEngine(Connection connection, JDBCStatementCache statementCache) {
+    return new EnginePostgres(this, connection, statementCache);
+  }
 }
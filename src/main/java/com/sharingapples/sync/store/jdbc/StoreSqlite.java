@@ -5,17 +5,75 @@ import com.sharingapples.sync.store.StoreException;
 
 import java.io.File;
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
 
 /**
  * Created by ranjan on 12/13/15.
  */
 public class StoreSqlite extends StoreJDBC {
+  public static final String MEMORY_URL = "jdbc:sqlite::memory:";
+
   public StoreSqlite(Registrar registrar, File dbFile) throws StoreException {
-    super(registrar, "org.sqlite.JDBC",
-            "jdbc:sqlite:" + dbFile.getAbsolutePath(), new Properties());
+    this(registrar, dbFile, new SqliteProfile());
+  }
+
+  /**
+   * Open the database with the given profile applied on every connection,
+   * {@link SqliteProfile#performance()} for the write heavy stores.
+   */
+  public StoreSqlite(Registrar registrar, File dbFile, SqliteProfile profile) throws StoreException {
+    this(registrar, dbFile, profile, new JDBCPoolConfig());
   }
 
+  /**
+   * @param poolConfig The configuration of the pools, the writer pool having
+   *                   a single connection with a single writer profile
+   */
+  public StoreSqlite(Registrar registrar, File dbFile, SqliteProfile profile, JDBCPoolConfig poolConfig)
+          throws StoreException {
+    this(registrar, "jdbc:sqlite:" + dbFile.getAbsolutePath(), profile, poolConfig);
+  }
+
+  /**
+   * Open the database at the given jdbc url, like {@link #MEMORY_URL} for an
+   * in-memory database. Every connection to :memory: gets its own database,
+   * so such a store must not have any read connections, and its only writer
+   * connection must not be evicted from the pool. Such a store always has a
+   * single writer.
+   */
+  public StoreSqlite(Registrar registrar, String url, SqliteProfile profile, JDBCPoolConfig poolConfig)
+          throws StoreException {
+    super(registrar, new SqliteDialect(), "org.sqlite.JDBC", url, new Properties(), profile.getPragmas(),
+            profile.isSingleWriter() || url.equals(MEMORY_URL) ? writerConfig(poolConfig) : poolConfig);
+
+    if (profile.getReadConnections() > 0) {
+      List<String> readPragmas = new ArrayList<>(profile.getPragmas());
+      readPragmas.add("PRAGMA query_only=1");
+
+      JDBCPoolConfig readConfig = new JDBCPoolConfig(poolConfig);
+      readConfig.setMaxTotal(profile.getReadConnections());
+      readConfig.setMaxIdle(profile.getReadConnections());
+      setReadPool(createPool(url, new Properties(), readPragmas, readConfig));
+    }
+  }
+
+  /**
+   * SQLite allows a single writer at a time, with a single writer profile
+   * the engines wait for the only connection of the pool in their order of
+   * arrival instead of failing with SQLITE_BUSY. The reads executed with
+   * executeRead go to the read pool. The sessions started by a thread while
+   * it has a session open run nested in it, on the same connection (see
+   * {@link StoreJDBC#startEngine()}).
+   */
+  private static JDBCPoolConfig writerConfig(JDBCPoolConfig config) {
+    JDBCPoolConfig writerConfig = new JDBCPoolConfig(config);
+    writerConfig.setMaxTotal(1);
+    writerConfig.setMaxIdle(1);
+    writerConfig.setFairness(true);
+    return writerConfig;
+  }
 
   @Override
   public String getVersion() {
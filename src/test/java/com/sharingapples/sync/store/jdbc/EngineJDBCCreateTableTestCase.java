@@ -0,0 +1,103 @@
+package com.sharingapples.sync.store.jdbc;
+
+import com.sharingapples.sync.resource.Registrar;
+import com.sharingapples.test.sync.store.jdbc.setup.Author;
+import com.sharingapples.test.sync.store.jdbc.setup.Book;
+import com.sharingapples.test.sync.store.jdbc.setup.Publisher;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import static org.junit.Assert.*;
+
+/**
+ * The column types of the tables created by each dialect, the references
+ * and the join tables taking the type of the referenced keys
+ */
+public class EngineJDBCCreateTableTestCase {
+
+  private final Registrar registrar = new Registrar(source -> {
+    source.registerResource(Book.class);
+    source.registerResource(Author.class);
+    source.registerResource(Publisher.class);
+  });
+
+  private static void create(StoreJDBC store) {
+    store.execute(engine -> {
+      EngineJDBC e = (EngineJDBC) engine;
+      e.createTable(Book.class);
+      e.createTable(Author.class);
+      e.createTable(Publisher.class);
+      return null;
+    });
+  }
+
+  /**
+   * The declared type of each column of the table
+   */
+  @SuppressWarnings("unchecked")
+  private static Map<String, String> columns(StoreJDBC store, String table) {
+    return (Map<String, String>) store.execute(engine -> {
+      Map<String, String> types = new HashMap<>();
+      try (Statement stmt = ((EngineJDBC) engine).getConnection().createStatement();
+           ResultSet rs = stmt.executeQuery("PRAGMA table_info(" + table + ")")) {
+        while(rs.next()) {
+          types.put(rs.getString("name"), rs.getString("type"));
+        }
+      } catch(SQLException e) {
+        throw new AssertionError(e);
+      }
+      return types;
+    });
+  }
+
+  private Map<String, String> bookColumns(StoreJDBC store) {
+    return columns(store, store.getPlan(registrar.getResourceMap(Book.class)).getTableName());
+  }
+
+  private Map<String, String> joinColumns(StoreJDBC store) {
+    return columns(store, store.getRelations(registrar.getResourceMap(Book.class))[0].getTableName());
+  }
+
+  @Test
+  public void testGeneric() throws IOException {
+    File file = File.createTempFile("store-jdbc-", ".sqlite");
+    StoreJDBC store = new StoreJDBC(registrar, Dialect.GENERIC, "org.sqlite.JDBC", "jdbc:sqlite:" + file.getPath(),
+            new Properties());
+    create(store);
+
+    Map<String, String> book = bookColumns(store);
+    assertEquals("BIGINT", book.get("id"));
+    assertEquals("TEXT", book.get("title"));
+    assertEquals("BIGINT", book.get("publisher"));
+    assertFalse(book.containsKey("authors"));
+
+    Map<String, String> join = joinColumns(store);
+    assertEquals("BIGINT", join.get(JDBCRelation.PARENT_COLUMN));
+    assertEquals("BIGINT", join.get(JDBCRelation.CHILD_COLUMN));
+    assertEquals("INTEGER", join.get(JDBCRelation.POSITION_COLUMN));
+  }
+
+  @Test
+  public void testSqlite() throws IOException {
+    StoreSqlite store = new StoreSqlite(registrar, File.createTempFile("store-jdbc-", ".sqlite"));
+    create(store);
+
+    // The INTEGER key is the rowid of the table
+    Map<String, String> book = bookColumns(store);
+    assertEquals("INTEGER", book.get("id"));
+    assertEquals("TEXT", book.get("title"));
+    assertEquals("INTEGER", book.get("publisher"));
+
+    Map<String, String> join = joinColumns(store);
+    assertEquals("INTEGER", join.get(JDBCRelation.PARENT_COLUMN));
+    assertEquals("INTEGER", join.get(JDBCRelation.CHILD_COLUMN));
+  }
+}
@@ -0,0 +1,83 @@
+package com.sharingapples.sync.store.jdbc;
+
+import com.sharingapples.sync.store.jdbc.JDBCMetricsListener.Operation;
+import com.sharingapples.test.sync.store.jdbc.setup.Event;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.time.LocalDate;
+
+import static org.junit.Assert.*;
+
+public class EngineJDBCDirtyTrackingTestCase {
+  private static final LocalDate DAY = LocalDate.of(2016, 1, 15);
+
+  private EventFixture fixture;
+  private StoreSqlite store;
+
+  @Before
+  public void init() throws IOException {
+    fixture = new EventFixture();
+    store = fixture.sqlite();
+    store.execute(engine -> ((EngineJDBC) engine).insert(fixture.map, fixture.node(1L, "Launch", DAY)));
+    store.setDirtyTracking(true);
+    fixture.operations.clear();
+  }
+
+  private String name() {
+    return ((Event) store.execute(engine -> engine.fetch(fixture.map, fixture.key(1)))).getName();
+  }
+
+  @Test
+  public void testUnchanged() {
+    store.execute(engine -> {
+      engine.fetch(fixture.map, fixture.key(1));
+      return engine.update(fixture.map, fixture.node(1L, "Launch", DAY));
+    });
+    assertEquals(0, fixture.count(Operation.UPDATE));
+  }
+
+  @Test
+  public void testChanged() {
+    store.execute(engine -> {
+      engine.fetch(fixture.map, fixture.key(1));
+      engine.update(fixture.map, fixture.node(1L, "Relaunch", DAY));
+      // Back to the value read, which is not the value of the record anymore
+      return engine.update(fixture.map, fixture.node(1L, "Launch", DAY));
+    });
+    assertEquals(2, fixture.count(Operation.UPDATE));
+    assertEquals("Launch", name());
+  }
+
+  @Test
+  public void testNotRead() {
+    store.execute(engine -> engine.update(fixture.map, fixture.node(1L, "Launch", DAY)));
+    assertEquals(1, fixture.count(Operation.UPDATE));
+  }
+
+  @Test
+  public void testWrittenSinceRead() {
+    store.execute(engine -> {
+      EngineJDBC e = (EngineJDBC) engine;
+      e.fetch(fixture.map, fixture.key(1));
+      e.upsert(fixture.map, fixture.node(1L, "Relaunch", DAY));
+      return e.update(fixture.map, fixture.node(1L, "Launch", DAY));
+    });
+    assertEquals(1, fixture.count(Operation.UPDATE));
+    assertEquals("Launch", name());
+  }
+
+  @Test
+  public void testScanNotTracked() {
+    store.execute(engine -> {
+      try (JDBCRecordSet<Event> events = ((EngineJDBC) engine).fetchAll(fixture.map)) {
+        while(events.hasNext()) {
+          events.next();
+        }
+      }
+      return engine.update(fixture.map, fixture.node(1L, "Launch", DAY));
+    });
+    assertEquals(1, fixture.count(Operation.UPDATE));
+  }
+}
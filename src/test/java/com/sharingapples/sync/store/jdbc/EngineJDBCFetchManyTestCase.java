@@ -0,0 +1,105 @@
+package com.sharingapples.sync.store.jdbc;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sharingapples.sync.resource.Key;
+import com.sharingapples.sync.store.jdbc.JDBCMetricsListener.Operation;
+import com.sharingapples.test.sync.store.jdbc.setup.Event;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class EngineJDBCFetchManyTestCase {
+  private static final int RECORDS = 600;
+
+  private EventFixture fixture;
+  private StoreSqlite store;
+
+  @Before
+  public void init() throws IOException {
+    fixture = new EventFixture();
+    store = fixture.sqlite();
+
+    List<ObjectNode> nodes = new ArrayList<>();
+    for(long id=1; id<=RECORDS; ++id) {
+      nodes.add(fixture.node(id, "Event " + id, null));
+    }
+    store.execute(engine -> ((EngineJDBC) engine).insertAll(fixture.map, nodes));
+    fixture.operations.clear();
+  }
+
+  private Map<Object, Event> fetchMany(List<Key> keys) {
+    @SuppressWarnings("unchecked")
+    Map<Object, Event> result = (Map<Object, Event>) store.execute(engine ->
+            ((EngineJDBC) engine).fetchMany(fixture.map, keys));
+    return result;
+  }
+
+  private List<Key> keys(long... ids) {
+    List<Key> keys = new ArrayList<>();
+    for(long id : ids) {
+      keys.add(fixture.key(id));
+    }
+    return keys;
+  }
+
+  @Test
+  public void testFetchManySize() {
+    JDBCResourcePlan<Event> plan = store.getPlan(fixture.map);
+    assertEquals(1, plan.getFetchManySize(1));
+    assertEquals(2, plan.getFetchManySize(2));
+    assertEquals(4, plan.getFetchManySize(3));
+    assertEquals(4, plan.getFetchManySize(4));
+    assertEquals(8, plan.getFetchManySize(5));
+    assertEquals(512, plan.getMaxFetchManyKeys());
+    assertSame(plan.getFetchManySql(3), plan.getFetchManySql(4));
+  }
+
+  @Test
+  public void testPadded() {
+    // Three keys use the statement of four, padded with the last key
+    Map<Object, Event> result = fetchMany(keys(5, 1, 3));
+    assertEquals(new HashSet<Object>(Arrays.asList(5L, 1L, 3L)), result.keySet());
+    assertEquals("Event 3", result.get(3L).getName());
+    assertEquals(1, fixture.count(Operation.FETCH_MANY));
+  }
+
+  @Test
+  public void testMissing() {
+    Map<Object, Event> result = fetchMany(keys(2, 1000, 4));
+    assertEquals(2, result.size());
+    assertTrue(result.containsKey(2L));
+    assertTrue(result.containsKey(4L));
+    assertFalse(result.containsKey(1000L));
+  }
+
+  @Test
+  public void testEmpty() {
+    assertTrue(fetchMany(Collections.<Key>emptyList()).isEmpty());
+    assertEquals(0, fixture.count(Operation.FETCH_MANY));
+  }
+
+  @Test
+  public void testChunked() {
+    long[] ids = new long[RECORDS];
+    for(int i=0; i<ids.length; ++i) {
+      ids[i] = i + 1;
+    }
+
+    // 512 keys, then 88 keys padded to 128
+    Map<Object, Event> result = fetchMany(keys(ids));
+    assertEquals(RECORDS, result.size());
+    assertEquals(2, fixture.count(Operation.FETCH_MANY));
+    for(long id : ids) {
+      assertEquals(Long.valueOf(id), result.get(id).getId());
+    }
+  }
+}
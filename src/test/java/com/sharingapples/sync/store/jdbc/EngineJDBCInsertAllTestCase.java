@@ -0,0 +1,165 @@
+package com.sharingapples.sync.store.jdbc;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sharingapples.sync.store.jdbc.JDBCMetricsListener.Operation;
+import com.sharingapples.test.sync.store.jdbc.setup.Event;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import static org.junit.Assert.*;
+
+/**
+ * The batches of insertAll, with the generated keys returned one by one as
+ * sqlite does, and for a whole batch as postgres does
+ */
+public class EngineJDBCInsertAllTestCase {
+
+  private EventFixture fixture;
+
+  @Before
+  public void init() {
+    fixture = new EventFixture();
+  }
+
+  /**
+   * A sqlite store whose driver returns the keys generated by an
+   * executeBatch, read back from the table after the batch
+   */
+  private StoreJDBC batchKeys() throws IOException {
+    File file = File.createTempFile("store-jdbc-", ".sqlite");
+    Dialect dialect = new SqliteDialect() {
+      @Override
+      public boolean supportsBatchGeneratedKeys() {
+        return true;
+      }
+    };
+
+    return fixture.init(new StoreJDBC(fixture.registrar, dialect, "org.sqlite.JDBC", "jdbc:sqlite:" + file.getPath(),
+            new Properties()) {
+      @Override
+      EngineJDBC createEngine(Connection connection, JDBCStatementCache statementCache) {
+        String table = getPlan(fixture.map).getTableName();
+        return super.createEngine(batchKeys(connection, table), null);
+      }
+    });
+  }
+
+  private static Connection batchKeys(Connection connection, String table) {
+    return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] { Connection.class },
+            (proxy, method, args) -> {
+              Object res = invoke(connection, method, args);
+              if (method.getName().equals("prepareStatement") && args.length == 2
+                      && args[1].equals(Statement.RETURN_GENERATED_KEYS)) {
+                return batchKeys(connection, (PreparedStatement) res, table);
+              }
+              return res;
+            });
+  }
+
+  private static PreparedStatement batchKeys(Connection connection, PreparedStatement stmt, String table) {
+    long[] last = new long[1];
+    return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+            new Class<?>[] { PreparedStatement.class },
+            (proxy, method, args) -> {
+              if (method.getName().equals("executeBatch")) {
+                try (Statement max = connection.createStatement();
+                     ResultSet rs = max.executeQuery("SELECT coalesce(max(rowid), 0) FROM " + table)) {
+                  rs.next();
+                  last[0] = rs.getLong(1);
+                }
+              } else if (method.getName().equals("getGeneratedKeys")) {
+                Statement keys = connection.createStatement();
+                keys.closeOnCompletion();
+                return keys.executeQuery("SELECT rowid FROM " + table + " WHERE rowid > " + last[0] + " ORDER BY rowid");
+              }
+              return invoke(stmt, method, args);
+            });
+  }
+
+  private static Object invoke(Object target, java.lang.reflect.Method method, Object[] args) throws Throwable {
+    try {
+      return method.invoke(target, args);
+    } catch(InvocationTargetException e) {
+      throw e.getCause();
+    }
+  }
+
+  private List<ObjectNode> mixed() {
+    return Arrays.asList(
+            fixture.node(1L, "Launch", null),
+            fixture.node(2L, "Review", null),
+            fixture.node(null, "Release", null),
+            fixture.node(null, "Support", null),
+            fixture.node(10L, "Retire", null)
+    );
+  }
+
+  private void assertInserted(StoreJDBC store, List<ObjectNode> nodes) {
+    List<?> result = (List<?>) store.execute(engine -> ((EngineJDBC) engine).insertAll(fixture.map, nodes));
+    assertEquals(nodes.size(), result.size());
+
+    // The generated keys are set back on the nodes
+    long[] ids = { 1, 2, 3, 4, 10 };
+    for(int i=0; i<ids.length; ++i) {
+      long id = ids[i];
+      assertEquals(id, nodes.get(i).get("id").asLong());
+      assertNotNull(store.execute(engine -> engine.fetch(fixture.map, fixture.key(id))));
+    }
+    assertEquals("Release", ((Event) store.execute(engine -> engine.fetch(fixture.map, fixture.key(3)))).getName());
+    assertEquals("Support", ((Event) store.execute(engine -> engine.fetch(fixture.map, fixture.key(4)))).getName());
+  }
+
+  @Test
+  public void testGeneratedOneByOne() throws IOException {
+    StoreSqlite store = fixture.sqlite();
+    fixture.operations.clear();
+
+    assertInserted(store, mixed());
+    // The batch of the keys, each generated key, then the last key
+    assertEquals(4, fixture.count(Operation.INSERT));
+  }
+
+  @Test
+  public void testGeneratedBatch() throws IOException {
+    StoreJDBC store = batchKeys();
+    fixture.operations.clear();
+
+    assertInserted(store, mixed());
+    // Flushed as the nodes with and without the keys alternate
+    assertEquals(3, fixture.count(Operation.INSERT));
+  }
+
+  @Test
+  public void testBatchSize() throws IOException {
+    StoreJDBC store = batchKeys();
+    store.setBatchSize(2);
+    fixture.operations.clear();
+
+    List<ObjectNode> nodes = Arrays.asList(
+            fixture.node(null, "Launch", null),
+            fixture.node(null, "Review", null),
+            fixture.node(null, "Release", null),
+            fixture.node(null, "Support", null),
+            fixture.node(null, "Retire", null)
+    );
+    store.execute(engine -> ((EngineJDBC) engine).insertAll(fixture.map, nodes));
+    assertEquals(3, fixture.count(Operation.INSERT));
+
+    for(int i=0; i<nodes.size(); ++i) {
+      assertEquals(i + 1, nodes.get(i).get("id").asLong());
+    }
+    assertEquals("Retire", ((Event) store.execute(engine -> engine.fetch(fixture.map, fixture.key(5)))).getName());
+  }
+}
@@ -0,0 +1,98 @@
+package com.sharingapples.sync.store.jdbc;
+
+import com.sharingapples.sync.resource.Key;
+import com.sharingapples.test.sync.store.jdbc.setup.Event;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class EngineJDBCPageTestCase {
+
+  private EventFixture fixture;
+  private StoreSqlite store;
+
+  @Before
+  public void init() throws IOException {
+    fixture = new EventFixture();
+    store = fixture.sqlite();
+    store.execute(engine -> {
+      for(long id=1; id<=10; ++id) {
+        ((EngineJDBC) engine).insert(fixture.map, fixture.node(id, "Event " + id, null));
+      }
+      return null;
+    });
+  }
+
+  /**
+   * Read all the pages of the given limit
+   *
+   * @return The ids on each page
+   */
+  private List<List<Long>> pages(int limit) {
+    List<List<Long>> pages = new ArrayList<>();
+    store.execute(engine -> {
+      Key after = null;
+      do {
+        List<Long> ids = new ArrayList<>();
+        try (JDBCPage<Event> page = ((EngineJDBC) engine).fetchPage(fixture.map, after, limit)) {
+          while(page.getRecords().hasNext()) {
+            ids.add(page.getRecords().next().getId());
+          }
+          after = page.getNextKey();
+        }
+        pages.add(ids);
+      } while(after != null);
+      return null;
+    });
+    return pages;
+  }
+
+  @Test
+  public void testPartialLastPage() {
+    assertEquals(Arrays.asList(
+            Arrays.asList(1L, 2L, 3L),
+            Arrays.asList(4L, 5L, 6L),
+            Arrays.asList(7L, 8L, 9L),
+            Arrays.asList(10L)
+    ), pages(3));
+  }
+
+  @Test
+  public void testFullLastPage() {
+    // The last page cannot tell it is the last one when it is full
+    assertEquals(Arrays.asList(
+            Arrays.asList(1L, 2L, 3L, 4L, 5L),
+            Arrays.asList(6L, 7L, 8L, 9L, 10L),
+            Arrays.<Long>asList()
+    ), pages(5));
+  }
+
+  @Test
+  public void testSinglePage() {
+    assertEquals(Arrays.asList(Arrays.asList(1L, 2L, 3L, 4L, 5L, 6L, 7L, 8L, 9L, 10L)), pages(20));
+  }
+
+  @Test
+  public void testAfterLastRecord() {
+    store.execute(engine -> {
+      try (JDBCPage<Event> page = ((EngineJDBC) engine).fetchPage(fixture.map, fixture.key(10), 5)) {
+        assertFalse(page.getRecords().hasNext());
+        assertNull(page.getNextKey());
+      }
+      return null;
+    });
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidLimit() {
+    try (EngineJDBC engine = store.startEngine()) {
+      engine.fetchPage(fixture.map, null, 0);
+    }
+  }
+}
@@ -0,0 +1,230 @@
+package com.sharingapples.sync.store.jdbc;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sharingapples.sync.resource.FieldMap;
+import com.sharingapples.sync.resource.Key;
+import com.sharingapples.sync.resource.Registrar;
+import com.sharingapples.sync.resource.ResourceMap;
+import com.sharingapples.sync.store.StoreException;
+import com.sharingapples.sync.store.jdbc.JDBCMetricsListener.Operation;
+import com.sharingapples.test.sync.store.jdbc.setup.Author;
+import com.sharingapples.test.sync.store.jdbc.setup.Book;
+import com.sharingapples.test.sync.store.jdbc.setup.Publisher;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * The Many relations of the books to their authors, kept in a join table
+ */
+public class EngineJDBCRelationTestCase {
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
+  private final Registrar registrar = new Registrar(source -> {
+    source.registerResource(Book.class);
+    source.registerResource(Author.class);
+    source.registerResource(Publisher.class);
+  });
+  private final ResourceMap<Book> books = registrar.getResourceMap(Book.class);
+
+  private File file;
+  private StoreSqlite store;
+  private final EventFixture metrics = new EventFixture();
+
+  @Before
+  public void init() throws IOException {
+    file = File.createTempFile("store-jdbc-", ".sqlite");
+    store = new StoreSqlite(registrar, file);
+    store.execute(engine -> {
+      EngineJDBC e = (EngineJDBC) engine;
+      e.createTable(Book.class);
+      e.createTable(Author.class);
+      e.createTable(Publisher.class);
+      return null;
+    });
+    store.setMetricsListener(metrics);
+  }
+
+  private ObjectNode book(long id, String title, long... authorIds) {
+    ObjectNode node = MAPPER.createObjectNode();
+    node.put("id", id);
+    node.put("title", title);
+    if (authorIds != null) {
+      ArrayNode authors = node.putArray("authors");
+      for(long authorId : authorIds) {
+        ObjectNode author = MAPPER.createObjectNode();
+        author.put("id", authorId);
+        author.put("name", "Author " + authorId);
+        authors.add(author);
+      }
+    }
+    return node;
+  }
+
+  private static Key key(ResourceMap<?> map, long id) {
+    ObjectNode node = MAPPER.createObjectNode();
+    node.put("id", id);
+    return map.getPrimaryKey(node);
+  }
+
+  /**
+   * The author ids of a book in the join table, in their order
+   */
+  private List<Long> joined(EngineJDBC engine, long bookId) {
+    Dialect dialect = store.getDialect();
+    JDBCRelation relation = store.getRelations(books)[0];
+    String sql = "SELECT " + dialect.quoteIdentifier(JDBCRelation.CHILD_COLUMN)
+            + " FROM " + relation.getTableName()
+            + " WHERE " + dialect.quoteIdentifier(JDBCRelation.PARENT_COLUMN) + "=?"
+            + " ORDER BY " + dialect.quoteIdentifier(JDBCRelation.POSITION_COLUMN);
+
+    List<Long> ids = new ArrayList<>();
+    try (PreparedStatement stmt = engine.getConnection().prepareStatement(sql)) {
+      stmt.setLong(1, bookId);
+      try (ResultSet rs = stmt.executeQuery()) {
+        while(rs.next()) {
+          ids.add(rs.getLong(1));
+        }
+      }
+    } catch(SQLException e) {
+      throw new AssertionError(e);
+    }
+    return ids;
+  }
+
+  /**
+   * The author ids of the loaded books, by their order in the given list
+   */
+  private List<List<Long>> loaded(long... bookIds) {
+    FieldMap authors = null;
+    for(int i=0; i<books.getFieldsCount(); ++i) {
+      if (books.getFieldMap(i).getName().equals("authors")) {
+        authors = books.getFieldMap(i);
+      }
+    }
+    FieldMap field = authors;
+
+    List<List<Long>> result = new ArrayList<>();
+    store.execute(engine -> {
+      EngineJDBC e = (EngineJDBC) engine;
+      List<Book> parents = new ArrayList<>();
+      for(long bookId : bookIds) {
+        parents.add(e.fetch(books, key(books, bookId)));
+      }
+      e.loadMany(books, parents);
+
+      for(Book parent : parents) {
+        List<Long> ids = new ArrayList<>();
+        JsonNode idNodes = field.getType().toJSON(field.get(parent));
+        for(int i=0; i<idNodes.size(); ++i) {
+          ids.add(idNodes.get(i).longValue());
+        }
+        result.add(ids);
+      }
+      return null;
+    });
+    return result;
+  }
+
+  @Test
+  public void testSaved() {
+    store.execute(engine -> {
+      EngineJDBC e = (EngineJDBC) engine;
+      e.insert(books, book(1, "First", 11, 10, 12));
+      assertEquals(Arrays.asList(11L, 10L, 12L), joined(e, 1));
+      // The authors given as objects are saved as well
+      assertEquals("Author 10", e.fetch(registrar.getResourceMap(Author.class), key(registrar.getResourceMap(Author.class), 10)).getName());
+      return null;
+    });
+  }
+
+  @Test
+  public void testLoaded() {
+    store.execute(engine -> {
+      EngineJDBC e = (EngineJDBC) engine;
+      e.insert(books, book(1, "First", 11, 10));
+      e.insert(books, book(2, "Second", 12));
+      e.insert(books, book(3, "Third"));
+      return null;
+    });
+    metrics.operations.clear();
+
+    assertEquals(Arrays.asList(
+            Arrays.asList(11L, 10L),
+            Collections.<Long>emptyList(),
+            Arrays.asList(12L)
+    ), loaded(1, 3, 2));
+    // A single query for all the parents
+    assertEquals(1, metrics.count(Operation.LOAD_MANY));
+  }
+
+  @Test
+  public void testReplaced() {
+    store.execute(engine -> {
+      EngineJDBC e = (EngineJDBC) engine;
+      e.insert(books, book(1, "First", 10, 11));
+      e.update(books, book(1, "First", 12, 10));
+      assertEquals(Arrays.asList(12L, 10L), joined(e, 1));
+
+      // Left untouched when not in the node
+      e.update(books, book(1, "Renamed", (long[]) null));
+      assertEquals(Arrays.asList(12L, 10L), joined(e, 1));
+
+      e.update(books, book(1, "Renamed"));
+      assertEquals(Collections.<Long>emptyList(), joined(e, 1));
+      return null;
+    });
+  }
+
+  @Test
+  public void testRemovedOnDelete() {
+    store.execute(engine -> {
+      EngineJDBC e = (EngineJDBC) engine;
+      e.insert(books, book(1, "First", 10, 11));
+      e.insert(books, book(2, "Second", 10));
+      return null;
+    });
+    metrics.operations.clear();
+
+    store.execute(engine -> {
+      EngineJDBC e = (EngineJDBC) engine;
+      e.delete(books, key(books, 1));
+      assertEquals(Collections.<Long>emptyList(), joined(e, 1));
+      assertEquals(Arrays.asList(10L), joined(e, 2));
+      return null;
+    });
+    // The join table statement is not a record delete
+    assertEquals(1, metrics.count(Operation.DELETE));
+    assertEquals(1, metrics.count(Operation.SAVE_MANY));
+
+    // A new record with the same key does not inherit the authors
+    store.execute(engine -> ((EngineJDBC) engine).insert(books, book(1, "Reused", (long[]) null)));
+    assertEquals(Arrays.asList(Collections.<Long>emptyList(), Arrays.asList(10L)), loaded(1, 2));
+  }
+
+  @Test
+  public void testUnregistered() {
+    StoreSqlite other = new StoreSqlite(registrar, file);
+    try {
+      // The tables exist, but the relations of this store are not registered
+      other.execute(engine -> ((EngineJDBC) engine).insert(books, book(1, "First", 10)));
+      fail("The authors cannot be saved without the relation");
+    } catch(StoreException e) {
+      assertTrue(e.getMessage().contains("registerResources"));
+    }
+  }
+}
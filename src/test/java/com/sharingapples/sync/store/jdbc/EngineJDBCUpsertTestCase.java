@@ -0,0 +1,102 @@
+package com.sharingapples.sync.store.jdbc;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sharingapples.sync.store.jdbc.JDBCMetricsListener.Operation;
+import com.sharingapples.test.sync.store.jdbc.setup.Event;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * The upserts with the ON CONFLICT syntax of sqlite, and with the UPDATE
+ * then INSERT of the dialects without it
+ */
+public class EngineJDBCUpsertTestCase {
+  private static final LocalDate DAY = LocalDate.of(2016, 1, 15);
+
+  private EventFixture fixture;
+
+  @Before
+  public void init() {
+    fixture = new EventFixture();
+  }
+
+  private ObjectNode rename(long id, String name) {
+    // Without the day, which is left as it is
+    ObjectNode node = fixture.node(id, name, null);
+    node.remove("day");
+    return node;
+  }
+
+  private Event fetch(StoreJDBC store, long id) {
+    return (Event) store.execute(engine -> engine.fetch(fixture.map, fixture.key(id)));
+  }
+
+  private void assertUpserted(StoreJDBC store) {
+    store.execute(engine -> ((EngineJDBC) engine).upsert(fixture.map, fixture.node(1L, "Launch", DAY)));
+    assertEquals("Launch", fetch(store, 1).getName());
+    assertEquals(DAY, fetch(store, 1).getDay());
+
+    store.execute(engine -> ((EngineJDBC) engine).upsert(fixture.map, rename(1, "Relaunch")));
+    assertEquals("Relaunch", fetch(store, 1).getName());
+    assertEquals(DAY, fetch(store, 1).getDay());
+  }
+
+  @Test
+  public void testNative() throws IOException {
+    StoreSqlite store = fixture.sqlite();
+    assertUpserted(store);
+    assertEquals(2, fixture.count(Operation.UPSERT));
+    assertEquals(0, fixture.count(Operation.INSERT));
+    assertEquals(0, fixture.count(Operation.UPDATE));
+  }
+
+  @Test
+  public void testUpdateOrInsert() throws IOException {
+    StoreJDBC store = fixture.generic();
+    assertUpserted(store);
+    assertEquals(0, fixture.count(Operation.UPSERT));
+    // An UPDATE of no record followed by the INSERT, then an UPDATE
+    assertEquals(1, fixture.count(Operation.INSERT));
+    assertEquals(2, fixture.count(Operation.UPDATE));
+  }
+
+  @Test
+  public void testNativeAll() throws IOException {
+    StoreSqlite store = fixture.sqlite();
+    store.execute(engine -> ((EngineJDBC) engine).upsert(fixture.map, fixture.node(1L, "Launch", DAY)));
+    fixture.operations.clear();
+
+    store.execute(engine -> ((EngineJDBC) engine).upsertAll(fixture.map, Arrays.asList(
+            rename(1, "Relaunch"),
+            fixture.node(2L, "Review", DAY),
+            fixture.node(null, "Generated", null)
+    )));
+    assertEquals("Relaunch", fetch(store, 1).getName());
+    assertEquals(DAY, fetch(store, 1).getDay());
+    assertEquals("Review", fetch(store, 2).getName());
+    assertEquals("Generated", fetch(store, 3).getName());
+    // A batch for each shape of node, the node without a key is inserted
+    assertEquals(1, fixture.count(Operation.INSERT));
+    assertEquals(2, fixture.count(Operation.UPSERT));
+  }
+
+  @Test
+  public void testUpdateOrInsertAll() throws IOException {
+    StoreJDBC store = fixture.generic();
+    store.execute(engine -> ((EngineJDBC) engine).upsert(fixture.map, fixture.node(1L, "Launch", DAY)));
+
+    store.execute(engine -> ((EngineJDBC) engine).upsertAll(fixture.map, Arrays.asList(
+            rename(1, "Relaunch"),
+            fixture.node(2L, "Review", DAY)
+    )));
+    assertEquals("Relaunch", fetch(store, 1).getName());
+    assertEquals(DAY, fetch(store, 1).getDay());
+    assertEquals("Review", fetch(store, 2).getName());
+  }
+}
@@ -0,0 +1,46 @@
+package com.sharingapples.sync.store.jdbc;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.time.LocalDate;
+
+import static org.junit.Assert.*;
+
+public class EngineJDBCWriteAllTestCase {
+  private static final LocalDate DAY = LocalDate.of(2016, 1, 15);
+
+  private EventFixture fixture;
+  private StoreSqlite store;
+
+  @Before
+  public void init() throws IOException {
+    fixture = new EventFixture();
+    store = fixture.sqlite();
+  }
+
+  @Test
+  public void testWriteDate() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    int count = (Integer) store.execute(engine -> {
+      EngineJDBC e = (EngineJDBC) engine;
+      e.insert(fixture.map, fixture.node(null, "Launch", DAY));
+      e.insert(fixture.map, fixture.node(null, "Unscheduled", null));
+
+      // A bare JsonFactory generator, without any ObjectCodec
+      return e.writeAll(fixture.map, out);
+    });
+    assertEquals(2, count);
+
+    JsonNode records = new ObjectMapper().readTree(out.toByteArray());
+    assertEquals(2, records.size());
+    assertEquals("Launch", records.get(0).get("name").asText());
+    assertEquals(fixture.field("day").getType().toJSON(DAY), records.get(0).get("day"));
+    assertTrue(records.get(1).get("day").isNull());
+  }
+
+}
@@ -0,0 +1,168 @@
+package com.sharingapples.sync.store.jdbc;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sharingapples.sync.resource.FieldMap;
+import com.sharingapples.sync.resource.Registrar;
+import com.sharingapples.sync.resource.ResourceMap;
+import com.sharingapples.sync.store.StoreException;
+import com.sharingapples.test.sync.store.jdbc.setup.Event;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.postgresql.copy.CopyIn;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * The COPY of EnginePostgres against a CopyIn that records the data sent,
+ * no Postgres server being needed
+ */
+public class EnginePostgresTestCase {
+
+  private ResourceMap<Event> map;
+  private Connection connection;
+  private EnginePostgres engine;
+  private JDBCResourcePlan<Event> plan;
+
+  private String sql;
+  private ByteArrayOutputStream data;
+  private boolean active;
+  private boolean cancelled;
+  private long handledRows;
+
+  @Before
+  public void init() throws SQLException {
+    Registrar registrar = new Registrar(source -> source.registerResource(Event.class));
+    map = registrar.getResourceMap(Event.class);
+
+    // The pool does not connect until a connection is borrowed
+    StorePostgres store = new StorePostgres(registrar, "localhost", 5432, "test", "test", "test");
+    plan = store.getPlan(map);
+
+    data = new ByteArrayOutputStream();
+    connection = DriverManager.getConnection("jdbc:sqlite::memory:");
+    engine = new EnginePostgres(store, connection, null) {
+      @Override
+      CopyIn startCopy(String copySql) {
+        sql = copySql;
+        active = true;
+        return recordingCopyIn();
+      }
+    };
+  }
+
+  @After
+  public void close() throws SQLException {
+    connection.close();
+  }
+
+  private CopyIn recordingCopyIn() {
+    return (CopyIn) Proxy.newProxyInstance(CopyIn.class.getClassLoader(), new Class<?>[] { CopyIn.class },
+            (proxy, method, args) -> {
+              switch(method.getName()) {
+                case "writeToCopy":
+                  data.write((byte[]) args[0], (Integer) args[1], (Integer) args[2]);
+                  return null;
+                case "flushCopy":
+                  return null;
+                case "endCopy":
+                  active = false;
+                  return handledRows;
+                case "getHandledRowCount":
+                  return handledRows;
+                case "isActive":
+                  return active;
+                case "cancelCopy":
+                  active = false;
+                  cancelled = true;
+                  return null;
+                default:
+                  throw new UnsupportedOperationException(method.getName());
+              }
+            });
+  }
+
+  private ObjectNode event(Long id, String name, LocalDate day) {
+    ObjectNode node = new ObjectMapper().createObjectNode();
+    for(int i=0; i<plan.getFieldsCount(); ++i) {
+      FieldMap fieldMap = plan.getField(i);
+      Object value = fieldMap.getName().equals("id") ? id : fieldMap.getName().equals("name") ? name : day;
+      if (value == null) {
+        node.putNull(fieldMap.getName());
+      } else {
+        node.set(fieldMap.getName(), fieldMap.getType().toJSON(value));
+      }
+    }
+    return node;
+  }
+
+  private String row(Long id, String name, LocalDate day) {
+    StringBuilder row = new StringBuilder();
+    for(int i=0; i<plan.getFieldsCount(); ++i) {
+      String field = plan.getField(i).getName();
+      Object value = field.equals("id") ? id : field.equals("name") ? name : day;
+      if (i > 0) {
+        row.append(',');
+      }
+      if (value != null) {
+        row.append('"').append(value).append('"');
+      }
+    }
+    return row.append('\n').toString();
+  }
+
+  @Test
+  public void testCopyIn() {
+    handledRows = 2;
+    long count = engine.copyIn(map, Arrays.asList(
+            event(1L, "Launch", LocalDate.of(2016, 1, 15)),
+            event(2L, "Unscheduled", null)
+    ));
+
+    assertEquals(2, count);
+    assertTrue(sql.startsWith("COPY "));
+    assertTrue(sql.endsWith(" FROM STDIN WITH (FORMAT csv)"));
+    assertEquals(row(1L, "Launch", LocalDate.of(2016, 1, 15)) + row(2L, "Unscheduled", null),
+            new String(data.toByteArray(), StandardCharsets.UTF_8));
+    assertFalse(cancelled);
+  }
+
+  @Test
+  public void testRowCountFallback() {
+    // Not reported by the server
+    handledRows = -1;
+    long count = engine.copyIn(map, Arrays.asList(
+            event(1L, "Launch", LocalDate.of(2016, 1, 15)),
+            event(2L, "Review", LocalDate.of(2016, 2, 1)),
+            event(3L, "Release", null)
+    ), 16);
+
+    assertEquals(3, count);
+  }
+
+  @Test
+  public void testCancelledOnError() {
+    try {
+      engine.copyIn(map, Arrays.asList(
+              event(1L, "Launch", LocalDate.of(2016, 1, 15)),
+              event(null, "Without key", null)
+      ));
+      fail("The COPY of a record without its key should fail");
+    } catch(StoreException e) {
+      // expected
+    }
+
+    assertTrue(cancelled);
+    assertFalse(active);
+  }
+}
@@ -0,0 +1,105 @@
+package com.sharingapples.sync.store.jdbc;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sharingapples.sync.resource.FieldMap;
+import com.sharingapples.sync.resource.Key;
+import com.sharingapples.sync.resource.Registrar;
+import com.sharingapples.sync.resource.ResourceMap;
+import com.sharingapples.test.sync.store.jdbc.setup.Event;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * A store with the table of the Event resources, recording the operations
+ * executed by its engines
+ */
+class EventFixture implements JDBCMetricsListener {
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
+  final Registrar registrar = new Registrar(source -> source.registerResource(Event.class));
+  final ResourceMap<Event> map = registrar.getResourceMap(Event.class);
+  final List<Operation> operations = Collections.synchronizedList(new ArrayList<>());
+
+  /**
+   * A sqlite store with its own dialect
+   */
+  StoreSqlite sqlite() throws IOException {
+    return sqlite(new SqliteProfile());
+  }
+
+  StoreSqlite sqlite(SqliteProfile profile) throws IOException {
+    return init(new StoreSqlite(registrar, File.createTempFile("store-jdbc-", ".sqlite"), profile));
+  }
+
+  /**
+   * A sqlite store with the standard SQL only, without the upsert syntax
+   */
+  StoreJDBC generic() throws IOException {
+    File file = File.createTempFile("store-jdbc-", ".sqlite");
+    return init(new StoreJDBC(registrar, Dialect.GENERIC, "org.sqlite.JDBC", "jdbc:sqlite:" + file.getPath(),
+            new Properties()));
+  }
+
+  <S extends StoreJDBC> S init(S store) {
+    store.execute(engine -> {
+      ((EngineJDBC) engine).createTable(Event.class);
+      return null;
+    });
+    store.setMetricsListener(this);
+    return store;
+  }
+
+  ObjectNode node(Long id, String name, LocalDate day) {
+    ObjectNode node = MAPPER.createObjectNode();
+    if (id != null) {
+      node.put("id", id);
+    }
+    node.put("name", name);
+    FieldMap dayField = field("day");
+    if (day == null) {
+      node.putNull("day");
+    } else {
+      node.set("day", dayField.getType().toJSON(day));
+    }
+    return node;
+  }
+
+  Key key(long id) {
+    ObjectNode node = MAPPER.createObjectNode();
+    node.put("id", id);
+    return map.getPrimaryKey(node);
+  }
+
+  FieldMap field(String name) {
+    for(int i=0; i<map.getFieldsCount(); ++i) {
+      if (map.getFieldMap(i).getName().equals(name)) {
+        return map.getFieldMap(i);
+      }
+    }
+    throw new IllegalArgumentException(name);
+  }
+
+  int count(Operation operation) {
+    return Collections.frequency(operations, operation);
+  }
+
+  @Override
+  public void onExecute(ResourceMap<?> map, Operation operation, long prepareNanos, long executeNanos, int rows) {
+    operations.add(operation);
+  }
+
+  @Override
+  public void onRead(ResourceMap<?> map, int rows, long mapNanos) {
+  }
+
+  @Override
+  public void onCommit(long commitNanos) {
+  }
+}
@@ -0,0 +1,176 @@
+package com.sharingapples.sync.store.jdbc;
+
+import com.sharingapples.sync.store.StoreException;
+import com.sharingapples.test.sync.store.jdbc.setup.Event;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * The admission and the concurrency of the asynchronous sessions, on the
+ * pool of threads and on the virtual threads where the JVM has them
+ */
+public class JDBCAsyncExecutorTestCase {
+
+  private static JDBCAsyncExecutor virtual(int concurrency, int maxPending) {
+    ExecutorService executor = JDBCAsyncExecutor.newVirtualThreadExecutor();
+    Assume.assumeNotNull(executor);
+    return new JDBCAsyncExecutor(concurrency, maxPending, executor);
+  }
+
+  private static JDBCAsyncExecutor pooled(int concurrency, int maxPending) {
+    return new JDBCAsyncExecutor(concurrency, maxPending, null);
+  }
+
+  private static void assertRejected(CompletableFuture<?> future) throws InterruptedException {
+    assertTrue(future.isCompletedExceptionally());
+    try {
+      future.get();
+    } catch(ExecutionException e) {
+      assertTrue(e.getCause() instanceof StoreException);
+    }
+  }
+
+  private void checkRejected(JDBCAsyncExecutor executor) throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    List<CompletableFuture<Integer>> admitted = new ArrayList<>();
+    for(int i=0; i<5; ++i) {
+      int index = i;
+      admitted.add(executor.submit(() -> {
+        try {
+          release.await();
+        } catch(InterruptedException e) {
+          throw new IllegalStateException(e);
+        }
+        return index;
+      }));
+    }
+
+    // 2 running and 3 pending
+    assertEquals(5, executor.getAdmitted());
+    assertRejected(executor.submit(() -> -1));
+
+    release.countDown();
+    for(int i=0; i<admitted.size(); ++i) {
+      assertEquals(Integer.valueOf(i), admitted.get(i).get(10, TimeUnit.SECONDS));
+    }
+    assertEquals(Integer.valueOf(5), executor.submit(() -> 5).get(10, TimeUnit.SECONDS));
+    executor.shutdown(10, TimeUnit.SECONDS);
+  }
+
+  private void checkConcurrency(JDBCAsyncExecutor executor) throws Exception {
+    AtomicInteger current = new AtomicInteger();
+    AtomicInteger max = new AtomicInteger();
+    List<CompletableFuture<Void>> sessions = new ArrayList<>();
+    for(int i=0; i<20; ++i) {
+      sessions.add(executor.submit(() -> {
+        max.accumulateAndGet(current.incrementAndGet(), Math::max);
+        try {
+          Thread.sleep(20);
+        } catch(InterruptedException e) {
+          throw new IllegalStateException(e);
+        }
+        current.decrementAndGet();
+        return null;
+      }));
+    }
+    for(CompletableFuture<Void> session : sessions) {
+      session.get(10, TimeUnit.SECONDS);
+    }
+
+    assertTrue("At most 3 sessions at a time, not " + max.get(), max.get() <= 3);
+    assertEquals(0, executor.getAdmitted());
+    executor.shutdown(10, TimeUnit.SECONDS);
+  }
+
+  private void checkShutdown(JDBCAsyncExecutor executor) throws Exception {
+    CountDownLatch started = new CountDownLatch(1);
+    CompletableFuture<String> session = executor.submit(() -> {
+      started.countDown();
+      try {
+        Thread.sleep(100);
+      } catch(InterruptedException e) {
+        throw new IllegalStateException(e);
+      }
+      return "done";
+    });
+    started.await();
+
+    // Waits for the admitted session
+    executor.shutdown(10, TimeUnit.SECONDS);
+    assertTrue(session.isDone());
+    assertEquals("done", session.get());
+
+    assertRejected(executor.submit(() -> "late"));
+    assertEquals(0, executor.getAdmitted());
+  }
+
+  @Test
+  public void testPooledRejected() throws Exception {
+    checkRejected(pooled(2, 3));
+  }
+
+  @Test
+  public void testVirtualRejected() throws Exception {
+    checkRejected(virtual(2, 3));
+  }
+
+  @Test
+  public void testPooledConcurrency() throws Exception {
+    checkConcurrency(pooled(3, 100));
+  }
+
+  @Test
+  public void testVirtualConcurrency() throws Exception {
+    checkConcurrency(virtual(3, 100));
+  }
+
+  @Test
+  public void testPooledShutdown() throws Exception {
+    checkShutdown(pooled(2, 3));
+  }
+
+  @Test
+  public void testVirtualShutdown() throws Exception {
+    checkShutdown(virtual(2, 3));
+  }
+
+  @Test
+  public void testStore() throws Exception {
+    EventFixture fixture = new EventFixture();
+    SqliteProfile profile = new SqliteProfile();
+    profile.setSingleWriter(true);
+    StoreSqlite store = fixture.sqlite(profile);
+    store.setMaxPendingSessions(0);
+
+    // A single connection, so a single session at a time and none pending
+    CountDownLatch release = new CountDownLatch(1);
+    CompletableFuture<Event> first = store.executeAsync(engine -> {
+      engine.insert(fixture.map, fixture.node(1L, "Launch", null));
+      try {
+        release.await();
+      } catch(InterruptedException e) {
+        throw new IllegalStateException(e);
+      }
+      return engine.fetch(fixture.map, fixture.key(1));
+    });
+    assertRejected(store.executeAsync(engine -> null));
+    assertEquals(1, store.getAsyncSessions());
+
+    release.countDown();
+    assertEquals("Launch", first.get(10, TimeUnit.SECONDS).getName());
+
+    store.shutdownAsync(10, TimeUnit.SECONDS);
+    assertEquals(0, store.getAsyncSessions());
+  }
+}
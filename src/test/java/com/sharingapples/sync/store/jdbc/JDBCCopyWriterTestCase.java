@@ -0,0 +1,103 @@
+package com.sharingapples.sync.store.jdbc;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class JDBCCopyWriterTestCase {
+
+  private static final JDBCFieldMapper[] MAPPERS = { JDBCFieldMapper.LONG, JDBCFieldMapper.STRING };
+
+  private ByteArrayOutputStream data;
+  private List<Integer> writes;
+  private JDBCCopyWriter.Sink sink;
+
+  @Before
+  public void init() {
+    data = new ByteArrayOutputStream();
+    writes = new ArrayList<>();
+    sink = (buffer, offset, length) -> {
+      data.write(buffer, offset, length);
+      writes.add(length);
+    };
+  }
+
+  private String written() {
+    return new String(data.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+  @Test
+  public void testQuoting() throws SQLException {
+    JDBCCopyWriter writer = new JDBCCopyWriter(sink, 1024);
+    writer.writeRow(MAPPERS, new Object[] { 1L, "a,b" });
+    writer.writeRow(MAPPERS, new Object[] { 2L, "say \"hi\"" });
+    writer.writeRow(MAPPERS, new Object[] { 3L, "two\nlines" });
+    writer.flush();
+
+    assertEquals("\"1\",\"a,b\"\n\"2\",\"say \"\"hi\"\"\"\n\"3\",\"two\nlines\"\n", written());
+    assertEquals(3, writer.getRows());
+  }
+
+  @Test
+  public void testNullAndEmpty() throws SQLException {
+    JDBCCopyWriter writer = new JDBCCopyWriter(sink, 1024);
+    writer.writeRow(MAPPERS, new Object[] { 1L, null });
+    writer.writeRow(MAPPERS, new Object[] { 2L, "" });
+    writer.flush();
+
+    assertEquals("\"1\",\n\"2\",\"\"\n", written());
+  }
+
+  @Test
+  public void testBuffered() throws SQLException {
+    // Each row is 9 bytes, "\"1\",\"ab\"\n"
+    JDBCCopyWriter writer = new JDBCCopyWriter(sink, 20);
+    writer.writeRow(MAPPERS, new Object[] { 1L, "ab" });
+    writer.writeRow(MAPPERS, new Object[] { 2L, "cd" });
+    assertTrue(writes.isEmpty());
+
+    writer.writeRow(MAPPERS, new Object[] { 3L, "ef" });
+    assertEquals(Arrays.asList(18), writes);
+
+    writer.flush();
+    assertEquals(Arrays.asList(18, 9), writes);
+
+    // Nothing left to be flushed
+    writer.flush();
+    assertEquals(2, writes.size());
+    assertEquals("\"1\",\"ab\"\n\"2\",\"cd\"\n\"3\",\"ef\"\n", written());
+  }
+
+  @Test
+  public void testRowLargerThanBuffer() throws SQLException {
+    char[] chars = new char[EnginePostgres.DEFAULT_COPY_BUFFER_SIZE + 1000];
+    Arrays.fill(chars, 'x');
+    String large = new String(chars);
+
+    JDBCCopyWriter writer = new JDBCCopyWriter(sink, EnginePostgres.DEFAULT_COPY_BUFFER_SIZE);
+    writer.writeRow(MAPPERS, new Object[] { 1L, "before" });
+    writer.writeRow(MAPPERS, new Object[] { 2L, large });
+    writer.writeRow(MAPPERS, new Object[] { 3L, "after" });
+    writer.flush();
+
+    // The buffered row goes first, then the large one on its own
+    assertEquals(3, writes.size());
+    assertEquals("\"1\",\"before\"\n".length(), (int) writes.get(0));
+    assertEquals(large.length() + 7, (int) writes.get(1));
+    assertEquals("\"1\",\"before\"\n\"2\",\"" + large + "\"\n\"3\",\"after\"\n", written());
+    assertEquals(3, writer.getRows());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidBufferSize() {
+    new JDBCCopyWriter(sink, 0);
+  }
+}
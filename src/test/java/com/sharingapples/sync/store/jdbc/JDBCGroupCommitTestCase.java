@@ -0,0 +1,222 @@
+package com.sharingapples.sync.store.jdbc;
+
+import com.sharingapples.sync.store.StoreException;
+import com.sharingapples.test.sync.store.jdbc.setup.Event;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class JDBCGroupCommitTestCase {
+  private static final long WINDOW_MILLIS = 500;
+
+  private String url;
+  private Connection physical;
+  private final AtomicInteger commits = new AtomicInteger();
+  private final AtomicBoolean failCommit = new AtomicBoolean();
+  private JDBCGroupCommit group;
+  private ExecutorService executor;
+
+  @Before
+  public void init() throws IOException, SQLException {
+    url = "jdbc:sqlite:" + File.createTempFile("store-jdbc-", ".sqlite").getPath();
+    physical = DriverManager.getConnection(url);
+    try (Statement stmt = physical.createStatement()) {
+      stmt.executeUpdate("CREATE TABLE item(id INTEGER PRIMARY KEY)");
+    }
+    physical.setAutoCommit(false);
+
+    group = new JDBCGroupCommit(counting(physical), WINDOW_MILLIS, TimeUnit.MILLISECONDS);
+    group.start();
+    executor = Executors.newCachedThreadPool();
+  }
+
+  @After
+  public void close() {
+    executor.shutdownNow();
+    group.stop();
+  }
+
+  /**
+   * The connection counting its commits, which fail when failCommit is set
+   */
+  private Connection counting(Connection connection) {
+    return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] { Connection.class },
+            (proxy, method, args) -> {
+              if (method.getName().equals("commit")) {
+                if (failCommit.get()) {
+                  throw new SQLException("Commit failed");
+                }
+                commits.incrementAndGet();
+              }
+              try {
+                return method.invoke(connection, args);
+              } catch(InvocationTargetException e) {
+                throw e.getCause();
+              }
+            });
+  }
+
+  private void insert(long id) throws SQLException {
+    try (Statement stmt = group.getConnection().createStatement()) {
+      stmt.executeUpdate("INSERT INTO item(id) VALUES (" + id + ")");
+    }
+  }
+
+  /**
+   * The ids committed, read from another connection
+   */
+  private List<Long> committed() throws SQLException {
+    List<Long> ids = new ArrayList<>();
+    try (Connection reader = DriverManager.getConnection(url);
+         Statement stmt = reader.createStatement();
+         ResultSet rs = stmt.executeQuery("SELECT id FROM item ORDER BY id")) {
+      while(rs.next()) {
+        ids.add(rs.getLong(1));
+      }
+    }
+    return ids;
+  }
+
+  private Future<?> session(long id, CountDownLatch started) {
+    return executor.submit(() -> {
+      Savepoint savepoint = group.begin();
+      started.countDown();
+      insert(id);
+      group.commit(savepoint);
+      return null;
+    });
+  }
+
+  @Test
+  public void testCombined() throws Exception {
+    CountDownLatch started = new CountDownLatch(5);
+    List<Future<?>> sessions = new ArrayList<>();
+    for(long id=1; id<=5; ++id) {
+      sessions.add(session(id, started));
+    }
+    for(Future<?> session : sessions) {
+      session.get(10, TimeUnit.SECONDS);
+    }
+
+    assertEquals(1, commits.get());
+    assertEquals(5, committed().size());
+  }
+
+  @Test
+  public void testRollbackToSavepoint() throws Exception {
+    CountDownLatch started = new CountDownLatch(1);
+    Future<?> first = session(1, started);
+    started.await();
+
+    // Waits for the first session to join the group
+    Savepoint savepoint = group.begin();
+    insert(2);
+    group.rollback(savepoint);
+
+    savepoint = group.begin();
+    insert(3);
+    group.commit(savepoint);
+    first.get(10, TimeUnit.SECONDS);
+
+    assertEquals(1, commits.get());
+    List<Long> expected = new ArrayList<>();
+    expected.add(1L);
+    expected.add(3L);
+    assertEquals(expected, committed());
+  }
+
+  @Test
+  public void testFailedCommit() throws Exception {
+    failCommit.set(true);
+    CountDownLatch started = new CountDownLatch(2);
+    List<Future<?>> sessions = new ArrayList<>();
+    sessions.add(session(1, started));
+    sessions.add(session(2, started));
+
+    for(Future<?> session : sessions) {
+      try {
+        session.get(10, TimeUnit.SECONDS);
+        fail("The session should fail with its group");
+      } catch(ExecutionException e) {
+        assertTrue(e.getCause() instanceof StoreException);
+      }
+    }
+    assertTrue(committed().isEmpty());
+  }
+
+  @Test
+  public void testNested() throws Exception {
+    Savepoint outer = group.begin();
+    insert(1);
+    Savepoint inner = group.begin();
+    insert(2);
+
+    // Committed along with the outer session
+    group.commit(inner);
+    Thread.sleep(2 * WINDOW_MILLIS);
+    assertEquals(0, commits.get());
+
+    group.commit(outer);
+    assertEquals(1, commits.get());
+    assertEquals(2, committed().size());
+  }
+
+  @Test
+  public void testDisableDrainsPending() throws Exception {
+    EventFixture fixture = new EventFixture();
+    StoreSqlite store = fixture.sqlite();
+    store.enableGroupCommit(1, TimeUnit.HOURS);
+
+    CountDownLatch written = new CountDownLatch(1);
+    Future<?> session = executor.submit(() -> store.execute(engine -> {
+      ((EngineJDBC) engine).insert(fixture.map, fixture.node(1L, "Launch", null));
+      written.countDown();
+      return null;
+    }));
+    written.await();
+    // Let the session join the group and wait for its commit
+    Thread.sleep(200);
+
+    // Commits the pending group without waiting for the end of the window
+    store.disableGroupCommit();
+    session.get(10, TimeUnit.SECONDS);
+    assertFalse(store.isGroupCommitEnabled());
+
+    Event event = (Event) store.execute(engine -> engine.fetch(fixture.map, fixture.key(1)));
+    assertEquals("Launch", event.getName());
+  }
+
+  @Test
+  public void testStopped() {
+    group.stop();
+    try {
+      group.begin();
+      fail("The group commit has been stopped");
+    } catch(StoreException e) {
+      // expected
+    }
+  }
+}
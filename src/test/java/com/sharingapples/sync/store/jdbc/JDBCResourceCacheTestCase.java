@@ -0,0 +1,105 @@
+package com.sharingapples.sync.store.jdbc;
+
+import com.sharingapples.sync.store.jdbc.JDBCMetricsListener.Operation;
+import com.sharingapples.test.sync.store.jdbc.setup.Event;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class JDBCResourceCacheTestCase {
+  private static final LocalDate DAY = LocalDate.of(2016, 1, 15);
+
+  private EventFixture fixture;
+  private StoreSqlite store;
+
+  @Before
+  public void init() throws IOException {
+    fixture = new EventFixture();
+    // With a single writer, so the sessions of a thread are nested
+    SqliteProfile profile = new SqliteProfile();
+    profile.setSingleWriter(true);
+    store = fixture.sqlite(profile);
+    store.execute(engine -> ((EngineJDBC) engine).insert(fixture.map, fixture.node(1L, "Launch", DAY)));
+    store.enableResourceCache(100, 1, TimeUnit.HOURS);
+    fixture.operations.clear();
+  }
+
+  private Event fetch() {
+    return (Event) store.execute(engine -> engine.fetch(fixture.map, fixture.key(1)));
+  }
+
+  @Test
+  public void testHit() {
+    assertEquals("Launch", fetch().getName());
+    assertEquals("Launch", fetch().getName());
+
+    assertEquals(1, fixture.count(Operation.FETCH));
+    assertEquals(1, store.getResourceCacheStats().getHits());
+    assertEquals(1, store.getResourceCacheStats().getMisses());
+  }
+
+  @Test
+  public void testValuesNotShared() {
+    Event event = fetch();
+    fixture.field("name").set(event, "Changed");
+
+    // A hit sets the values of the record again, as a fetch does
+    assertEquals("Launch", fetch().getName());
+    assertEquals(DAY, fetch().getDay());
+    assertEquals(1, fixture.count(Operation.FETCH));
+  }
+
+  @Test
+  public void testInvalidatedOnCommit() {
+    fetch();
+    store.execute(engine -> {
+      EngineJDBC e = (EngineJDBC) engine;
+      e.update(fixture.map, fixture.node(1L, "Relaunch", DAY));
+
+      // The session reads its own write from the database
+      assertEquals("Relaunch", e.fetch(fixture.map, fixture.key(1)).getName());
+      return null;
+    });
+    assertEquals(2, fixture.count(Operation.FETCH));
+
+    assertEquals("Relaunch", fetch().getName());
+    assertEquals(3, fixture.count(Operation.FETCH));
+
+    // Cached again
+    assertEquals("Relaunch", fetch().getName());
+    assertEquals(3, fixture.count(Operation.FETCH));
+  }
+
+  @Test
+  public void testKeptOnRollback() {
+    fetch();
+    try (EngineJDBC engine = store.startEngine()) {
+      engine.update(fixture.map, fixture.node(1L, "Relaunch", DAY));
+    }
+
+    assertEquals("Launch", fetch().getName());
+    assertEquals(1, fixture.count(Operation.FETCH));
+  }
+
+  @Test
+  public void testBypassedWithinOuter() {
+    fetch();
+    store.execute(outer -> {
+      ((EngineJDBC) outer).update(fixture.map, fixture.node(1L, "Relaunch", DAY));
+
+      // A nested session reads the write of the outer one, not the cache
+      assertEquals("Relaunch", fetch().getName());
+      return null;
+    });
+    assertEquals(2, fixture.count(Operation.FETCH));
+    assertEquals(1, store.getResourceCacheStats().getHits() + store.getResourceCacheStats().getMisses());
+
+    assertEquals("Relaunch", fetch().getName());
+    assertEquals(3, fixture.count(Operation.FETCH));
+  }
+}
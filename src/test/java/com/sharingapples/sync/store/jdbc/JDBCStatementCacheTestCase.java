@@ -0,0 +1,131 @@
+package com.sharingapples.sync.store.jdbc;
+
+import com.sharingapples.sync.resource.Registrar;
+import com.sharingapples.test.sync.store.jdbc.setup.Event;
+import org.apache.commons.dbcp2.DelegatingConnection;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Properties;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.Assert.*;
+
+public class JDBCStatementCacheTestCase {
+
+  private Connection connection;
+  private LongAdder hits;
+  private LongAdder misses;
+
+  @Before
+  public void init() throws SQLException {
+    connection = DriverManager.getConnection("jdbc:sqlite::memory:");
+    hits = new LongAdder();
+    misses = new LongAdder();
+  }
+
+  @After
+  public void close() throws SQLException {
+    connection.close();
+  }
+
+  @Test
+  public void testReuse() throws SQLException {
+    JDBCStatementCache cache = new JDBCStatementCache(connection, 4, hits, misses);
+    PreparedStatement stmt = cache.borrow("SELECT 1", Statement.NO_GENERATED_KEYS);
+    cache.release("SELECT 1", stmt);
+
+    assertSame(stmt, cache.borrow("SELECT 1", Statement.NO_GENERATED_KEYS));
+    assertEquals(1, hits.sum());
+    assertEquals(1, misses.sum());
+  }
+
+  @Test
+  public void testNested() throws SQLException {
+    JDBCStatementCache cache = new JDBCStatementCache(connection, 4, hits, misses);
+    PreparedStatement outer = cache.borrow("SELECT 1", Statement.NO_GENERATED_KEYS);
+    PreparedStatement inner = cache.borrow("SELECT 1", Statement.NO_GENERATED_KEYS);
+    assertNotSame(outer, inner);
+
+    cache.release("SELECT 1", inner);
+    cache.release("SELECT 1", outer);
+
+    // Only one of them is kept
+    assertEquals(1, cache.size());
+    assertTrue(inner.isClosed());
+    assertFalse(outer.isClosed());
+  }
+
+  @Test
+  public void testLeastRecentlyUsed() throws SQLException {
+    JDBCStatementCache cache = new JDBCStatementCache(connection, 2, hits, misses);
+    PreparedStatement first = cache.borrow("SELECT 1", Statement.NO_GENERATED_KEYS);
+    cache.release("SELECT 1", first);
+    PreparedStatement second = cache.borrow("SELECT 2", Statement.NO_GENERATED_KEYS);
+    cache.release("SELECT 2", second);
+    PreparedStatement third = cache.borrow("SELECT 3", Statement.NO_GENERATED_KEYS);
+    cache.release("SELECT 3", third);
+
+    assertEquals(2, cache.size());
+    assertTrue(first.isClosed());
+    assertFalse(second.isClosed());
+    assertFalse(third.isClosed());
+  }
+
+  @Test
+  public void testReclaim() throws SQLException {
+    JDBCStatementCache cache = new JDBCStatementCache(connection, 4, hits, misses);
+    PreparedStatement released = cache.borrow("SELECT 1", Statement.NO_GENERATED_KEYS);
+    cache.release("SELECT 1", released);
+    PreparedStatement open = cache.borrow("SELECT 2", Statement.NO_GENERATED_KEYS);
+
+    // The end of the session
+    cache.reclaim();
+    assertTrue(open.isClosed());
+    assertFalse(released.isClosed());
+
+    // A late release is ignored
+    cache.release("SELECT 2", open);
+    assertEquals(1, cache.size());
+
+    cache.close();
+    assertTrue(released.isClosed());
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void testDiscardedWithConnection() throws IOException, SQLException {
+    Registrar registrar = new Registrar(source -> source.registerResource(Event.class));
+    File file = File.createTempFile("store-jdbc-", ".sqlite");
+    StoreSqlite store = new StoreSqlite(registrar, file);
+    JDBCConnectionPool pool = store.createPool("jdbc:sqlite:" + file.getPath(), new Properties(), null,
+            new JDBCPoolConfig());
+
+    Connection pooled = pool.getConnection();
+    JDBCStatementCache cache = store.getStatementCache(pooled);
+    PreparedStatement stmt = cache.borrow("SELECT 1", Statement.NO_GENERATED_KEYS);
+    cache.release("SELECT 1", stmt);
+    pooled.close();
+
+    // The cache stays with the physical connection
+    pooled = pool.getConnection();
+    assertSame(cache, store.getStatementCache(pooled));
+
+    // A broken connection is destroyed by the pool when given back
+    ((DelegatingConnection<?>) pooled).getInnermostDelegate().close();
+    pooled.close();
+    assertEquals(0, cache.size());
+
+    pooled = pool.getConnection();
+    assertNotSame(cache, store.getStatementCache(pooled));
+    pooled.close();
+  }
+}
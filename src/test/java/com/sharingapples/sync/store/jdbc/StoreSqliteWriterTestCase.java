@@ -0,0 +1,117 @@
+package com.sharingapples.sync.store.jdbc;
+
+import com.sharingapples.test.sync.store.jdbc.setup.Event;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * The sessions of a single writer store, nested in the open session of
+ * their thread on the only connection
+ */
+public class StoreSqliteWriterTestCase {
+
+  private EventFixture fixture;
+  private StoreSqlite store;
+
+  @Before
+  public void init() throws IOException {
+    fixture = new EventFixture();
+    SqliteProfile profile = new SqliteProfile();
+    profile.setSingleWriter(true);
+    store = fixture.sqlite(profile);
+  }
+
+  private boolean exists(long id) {
+    return store.execute(engine -> engine.fetch(fixture.map, fixture.key(id))) != null;
+  }
+
+  private void insert(EngineJDBC engine, long id) {
+    engine.insert(fixture.map, fixture.node(id, "Event " + id, null));
+  }
+
+  @Test
+  public void testPools() throws IOException {
+    assertEquals(1, store.getPoolMetrics().getMaxTotal());
+    assertNull(store.getReadPoolMetrics());
+
+    // The default profile keeps the pool as configured
+    assertTrue(new EventFixture().sqlite().getPoolMetrics().getMaxTotal() > 1);
+    assertEquals(1, new StoreSqlite(fixture.registrar, StoreSqlite.MEMORY_URL, new SqliteProfile(),
+            new JDBCPoolConfig()).getPoolMetrics().getMaxTotal());
+  }
+
+  @Test
+  public void testCommittedWithOuter() {
+    store.execute(outer -> {
+      insert((EngineJDBC) outer, 1);
+      store.execute(inner -> {
+        // On the same connection, without waiting for it
+        assertSame(((EngineJDBC) outer).getConnection(), ((EngineJDBC) inner).getConnection());
+        insert((EngineJDBC) inner, 2);
+        return null;
+      });
+      return null;
+    });
+
+    assertTrue(exists(1));
+    assertTrue(exists(2));
+  }
+
+  @Test
+  public void testNestedRolledBack() {
+    store.execute(outer -> {
+      insert((EngineJDBC) outer, 1);
+      try (EngineJDBC inner = store.startEngine()) {
+        insert(inner, 2);
+        // Closed without a commit
+      }
+      insert((EngineJDBC) outer, 3);
+      return null;
+    });
+
+    assertTrue(exists(1));
+    assertFalse(exists(2));
+    assertTrue(exists(3));
+  }
+
+  @Test
+  public void testOuterRolledBack() {
+    try (EngineJDBC outer = store.startEngine()) {
+      insert(outer, 1);
+      store.execute(inner -> {
+        insert((EngineJDBC) inner, 2);
+        return null;
+      });
+    }
+
+    assertFalse(exists(1));
+    assertFalse(exists(2));
+  }
+
+  @Test
+  public void testReadWithinSession() {
+    store.execute(outer -> {
+      insert((EngineJDBC) outer, 1);
+      // Without read connections, the read runs nested on the writer
+      Event event = store.executeRead(engine -> engine.fetch(fixture.map, fixture.key(1)));
+      assertEquals("Event 1", event.getName());
+      return null;
+    });
+  }
+
+  @Test
+  public void testReleased() {
+    store.execute(engine -> null);
+
+    // The connection is back in the pool, the next session is not nested
+    try (EngineJDBC engine = store.startEngine()) {
+      insert(engine, 1);
+      engine.commit();
+    }
+    assertTrue(exists(1));
+  }
+}
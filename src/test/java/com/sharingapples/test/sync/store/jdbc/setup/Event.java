@@ -0,0 +1,24 @@
+package com.sharingapples.test.sync.store.jdbc.setup;
+
+import com.sharingapples.sync.resource.Resource;
+import com.sharingapples.sync.resource.annotations.Field;
+
+import java.time.LocalDate;
+
+public class Event implements Resource {
+
+  @Field private Long id;
+  @Field private String name;
+  @Field private LocalDate day;
+
+
+  @Override
+  public Long getId() {
+    return id;
+  }
+
+  public String getName() { return name; }
+
+  public LocalDate getDay() { return day; }
+
+}